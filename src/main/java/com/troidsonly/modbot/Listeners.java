@@ -41,11 +41,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
 
 import net.dv8tion.jda.api.hooks.EventListener;
 
@@ -53,7 +53,9 @@ import com.troidsonly.modbot.commands.admin.AdminListener;
 import com.troidsonly.modbot.commands.cryo.CryoHandler;
 import com.troidsonly.modbot.commands.dumpmessages.DumpMessagesHandler;
 import com.troidsonly.modbot.commands.filter.FilterListener;
+import com.troidsonly.modbot.commands.filter.FilterSettings;
 import com.troidsonly.modbot.commands.log.LogListener;
+import com.troidsonly.modbot.commands.log.MessageCacheSettings;
 import com.troidsonly.modbot.commands.reactforroles.ReactForRolesListener;
 import com.troidsonly.modbot.commands.starboard.StarboardListener;
 import com.troidsonly.modbot.commands.tuuuuuuubes.BombAndTubesHandler;
@@ -63,19 +65,17 @@ import com.troidsonly.modbot.hooks.Fantasy;
 import com.troidsonly.modbot.hooks.MultiCommandHandler;
 import com.troidsonly.modbot.persistence.GsonPersistenceWrapper;
 import com.troidsonly.modbot.persistence.PersistenceWrapper;
-import com.troidsonly.modbot.security.AccessControl;
 import com.troidsonly.modbot.security.DiscordGuildRoleAccessControl;
+import com.troidsonly.modbot.utils.WorkerPool;
 
 class Listeners {
 
     private final Set<EventListener> ownListeners = new HashSet<>();
 
     private final Properties properties;
-    private final ExecutorService executorService;
 
-    public Listeners(Properties properties, ExecutorService executorService) {
+    public Listeners(Properties properties) {
         this.properties = properties;
-        this.executorService = executorService;
     }
 
     public Set<EventListener> getAllListeners() {
@@ -89,16 +89,25 @@ class Listeners {
         String tubesDirectory = properties.getProperty("tubesDirectory", "tubes");
         boolean bootyEnabled = Boolean.parseBoolean(properties.getProperty("bootyEnabled", "true"));
 
+        int processors = Runtime.getRuntime().availableProcessors();
+        WorkerPool filterRunnerPool = WorkerPool.fromProperties(properties, "filterRunnerPool", Math.max(2, processors), 1000,
+                WorkerPool.RejectionPolicy.CALLER_RUNS);
+        // Regex matches are waited on with a timeout, which would never apply if a match ran on the waiting thread
+        WorkerPool regexMatchPool = WorkerPool.fromProperties(properties, "regexMatchPool", Math.max(2, processors), 1000,
+                WorkerPool.RejectionPolicy.ABORT, EnumSet.complementOf(EnumSet.of(WorkerPool.RejectionPolicy.CALLER_RUNS)));
+        WorkerPool restActionPool = WorkerPool.fromProperties(properties, "restActionPool", 4, 1000,
+                WorkerPool.RejectionPolicy.CALLER_RUNS);
+
         Path statefile = Paths.get(statefileName);
         Path tubes = Paths.get(tubesDirectory);
 
         PersistenceWrapper<?> wrapper = new GsonPersistenceWrapper(statefile);
-        AccessControl acl = new DiscordGuildRoleAccessControl(wrapper, new HashSet<>(Arrays.asList(ownerUids)));
-        LogListener logListener = new LogListener(wrapper, acl);
+        DiscordGuildRoleAccessControl acl = new DiscordGuildRoleAccessControl(wrapper, new HashSet<>(Arrays.asList(ownerUids)));
+        LogListener logListener = new LogListener(wrapper, acl, MessageCacheSettings.fromProperties(properties));
         AdminListener adminListener = new AdminListener(wrapper, acl);
         CryoHandler cryoHandler = new CryoHandler(acl, wrapper);
-        FilterListener filterListener = new FilterListener(acl, logListener, wrapper, cryoHandler, executorService,
-                fantasyString);
+        FilterListener filterListener = new FilterListener(acl, logListener, wrapper, cryoHandler, filterRunnerPool,
+                regexMatchPool, restActionPool, FilterSettings.fromProperties(properties), fantasyString);
         ReactForRolesListener reactForRolesListener = new ReactForRolesListener(wrapper, acl);
         StarboardListener starboardListener = new StarboardListener(wrapper, acl);
 
@@ -115,6 +124,7 @@ class Listeners {
 
         MultiCommandHandler commands = new MultiCommandHandler(handlers);
         ownListeners.add(new Fantasy(new CommandListener(commands), fantasyString));
+        ownListeners.add(acl);
         ownListeners.add(logListener);
         ownListeners.add(adminListener);
         ownListeners.add(filterListener);
@@ -44,10 +44,6 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Properties;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import javax.security.auth.login.LoginException;
 
 import net.dv8tion.jda.api.JDABuilder;
@@ -55,7 +51,6 @@ import net.dv8tion.jda.api.requests.GatewayIntent;
 import net.dv8tion.jda.api.utils.ChunkingFilter;
 import net.dv8tion.jda.api.utils.MemberCachePolicy;
 import net.dv8tion.jda.api.utils.cache.CacheFlag;
-import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 
 public class ModBot {
     public static final String PROJECT_NAME = "TroidsOnly/ModBot";
@@ -70,7 +65,7 @@ public class ModBot {
             System.exit(1);
         }
 
-        Listeners listeners = new Listeners(properties, constructExecutorService());
+        Listeners listeners = new Listeners(properties);
 
         listeners.register();
 
@@ -133,14 +128,4 @@ public class ModBot {
             System.exit(1);
         }
     }
-
-    private ExecutorService constructExecutorService() {
-        BasicThreadFactory factory = new BasicThreadFactory.Builder()
-            .namingPattern("primaryExecutorPool-thread%d")
-            .daemon(true)
-            .build();
-        ThreadPoolExecutor ret = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), factory);
-        ret.allowCoreThreadTimeOut(true);
-        return ret;
-    }
 }
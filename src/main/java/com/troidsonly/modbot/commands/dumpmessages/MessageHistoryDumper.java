@@ -49,10 +49,10 @@ import java.util.stream.Collectors;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import net.dv8tion.jda.api.entities.Guild;
-import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.TextChannel;
 import net.dv8tion.jda.api.entities.User;
 
+import com.troidsonly.modbot.commands.log.CachedMessage;
 import com.troidsonly.modbot.commands.log.MessageCache;
 import com.troidsonly.modbot.utils.Miscellaneous;
 
@@ -79,15 +79,16 @@ public final class MessageHistoryDumper {
 
         for (TextChannel channel : channelList) {
             List<MessageRecord> messageRecords = new ArrayList<>();
-            List<Message> messages = messageCache.getMessagesByChannel(channel).stream()
-                .filter(message -> message.getAuthor().equals(user))
+            List<CachedMessage> messages = messageCache.getMessagesByChannel(channel).stream()
+                .filter(message -> message.getAuthorId() == user.getIdLong())
                 .collect(Collectors.toList());
 
-            for (Message message : messages) {
-                String fullMessage = Miscellaneous.getFullMessage(message).trim();
+            for (CachedMessage message : messages) {
+                String fullMessage = message.getFullContent().trim();
 
                 if (!fullMessage.isEmpty()) {
-                    messageRecords.add(new MessageRecord(message.getContentDisplay(), fullMessage, message.getTimeCreated(), message.getId()));
+                    messageRecords.add(new MessageRecord(message.getDisplayContent(), fullMessage,
+                        message.getCreationTime() / 1000L, Long.toString(message.getMessageId())));
                 }
             }
 
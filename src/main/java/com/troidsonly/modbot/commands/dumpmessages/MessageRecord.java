@@ -32,7 +32,6 @@
 
 package com.troidsonly.modbot.commands.dumpmessages;
 
-import java.time.OffsetDateTime;
 import java.util.Objects;
 
 import com.troidsonly.modbot.utils.Miscellaneous;
@@ -44,10 +43,10 @@ public class MessageRecord implements Comparable<MessageRecord> {
     private final long unixEpochTimestamp;
     private final String messageId;
 
-    public MessageRecord(String messageText, String rawMessageText, OffsetDateTime messageTime, String messageId) {
+    public MessageRecord(String messageText, String rawMessageText, long unixEpochTimestamp, String messageId) {
         this.messageText = Objects.requireNonNull(messageText);
         this.rawMessageText = Objects.requireNonNull(rawMessageText);
-        unixEpochTimestamp = Objects.requireNonNull(messageTime).toEpochSecond();
+        this.unixEpochTimestamp = unixEpochTimestamp;
         rfc1123Timestamp = Miscellaneous.unixEpochToRfc1123DateTimeString(unixEpochTimestamp);
         this.messageId = Objects.requireNonNull(messageId);
     }
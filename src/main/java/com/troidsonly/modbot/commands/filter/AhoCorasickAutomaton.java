@@ -0,0 +1,189 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton, which finds every occurrence of any of a fixed set of strings in a single pass over the
+ * text, no matter how many strings there are.  Instances are immutable once built.
+ */
+class AhoCorasickAutomaton {
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    private final boolean foldCase;
+    private final char[][] transitionKeys; // Sorted, per state
+    private final int[][] transitionTargets;
+    private final int[] failure;
+    private final int[][] outputs; // Indices of the needles that end at each state, including via failure links
+
+    /**
+     * @param needles The strings to search for; a needle's index in this list is what will be reported when it's found
+     * @param foldCase Whether to ignore case, using {@link #foldCase(char)} on both the needles and the text
+     */
+    AhoCorasickAutomaton(List<String> needles, boolean foldCase) {
+        this.foldCase = foldCase;
+
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        stateOutputs.add(new ArrayList<>());
+
+        for (int i = 0; i < needles.size(); i++) {
+            int state = 0;
+
+            for (char c : needles.get(i).toCharArray()) {
+                char key = foldCase ? foldCase(c) : c;
+                Integer next = trie.get(state).get(key);
+
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(key, next);
+                    trie.add(new TreeMap<>());
+                    stateOutputs.add(new ArrayList<>());
+                }
+
+                state = next;
+            }
+
+            stateOutputs.get(state).add(i);
+        }
+
+        int states = trie.size();
+        transitionKeys = new char[states][];
+        transitionTargets = new int[states][];
+        failure = new int[states];
+        outputs = new int[states][];
+
+        for (int state = 0; state < states; state++) {
+            Map<Character, Integer> transitions = trie.get(state);
+            transitionKeys[state] = new char[transitions.size()];
+            transitionTargets[state] = new int[transitions.size()];
+
+            int j = 0;
+            for (Map.Entry<Character, Integer> entry : transitions.entrySet()) {
+                transitionKeys[state][j] = entry.getKey();
+                transitionTargets[state][j] = entry.getValue();
+                j++;
+            }
+        }
+
+        // Breadth-first, so that each state's failure target (which is always shallower) is finished before it is
+        Queue<Integer> queue = new ArrayDeque<>();
+        outputs[0] = toArray(stateOutputs.get(0));
+        for (int child : transitionTargets[0]) {
+            failure[child] = 0;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            outputs[state] = merge(toArray(stateOutputs.get(state)), outputs[failure[state]]);
+
+            for (int j = 0; j < transitionKeys[state].length; j++) {
+                char c = transitionKeys[state][j];
+                int child = transitionTargets[state][j];
+                int fallback = failure[state];
+
+                while (fallback != 0 && transition(fallback, c) == -1) {
+                    fallback = failure[fallback];
+                }
+
+                int target = transition(fallback, c);
+                failure[child] = target == -1 || target == child ? 0 : target;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Scans the text once and records which needles occur in it.
+     *
+     * @param text The text to search
+     * @param found Receives the index of each needle that occurs in the text
+     */
+    void findAll(CharSequence text, BitSet found) {
+        int state = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = foldCase ? foldCase(text.charAt(i)) : text.charAt(i);
+            int next;
+
+            while ((next = transition(state, c)) == -1 && state != 0) {
+                state = failure[state];
+            }
+
+            state = next == -1 ? 0 : next;
+
+            for (int needle : outputs[state]) {
+                found.set(needle);
+            }
+        }
+    }
+
+    /**
+     * Folds a character the same way java.util.regex does when matching case-insensitively with Unicode case
+     * folding, which also covers ASCII-only case-insensitive matching.
+     */
+    static char foldCase(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private int transition(int state, char c) {
+        int index = Arrays.binarySearch(transitionKeys[state], c);
+        return index < 0 ? -1 : transitionTargets[state][index];
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        return list.isEmpty() ? NO_OUTPUTS : list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] merge(int[] a, int[] b) {
+        if (a.length == 0) {
+            return b;
+        } else if (b.length == 0) {
+            return a;
+        }
+
+        int[] retval = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, retval, a.length, b.length);
+        return retval;
+    }
+}
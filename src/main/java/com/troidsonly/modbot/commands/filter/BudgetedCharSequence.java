@@ -0,0 +1,103 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.Objects;
+
+/**
+ * A CharSequence that counts every character the regex engine reads from it and aborts the match, by throwing
+ * {@link MatchBudgetExceededException}, once a fixed number of reads has been exceeded.  Since backtracking re-reads the
+ * subject, the number of reads is a deterministic stand-in for how much work a match has done, which lets potentially
+ * catastrophic patterns be cut off without handing the match to a separate thread.
+ */
+class BudgetedCharSequence implements CharSequence {
+    private final CharSequence inner;
+    private final Budget budget;
+
+    public BudgetedCharSequence(CharSequence inner, long steps) {
+        this(inner, new Budget(steps));
+    }
+
+    private BudgetedCharSequence(CharSequence inner, Budget budget) {
+        this.inner = Objects.requireNonNull(inner);
+        this.budget = budget;
+    }
+
+    /**
+     * Restores the full budget, ready for the next match.
+     */
+    public void reset() {
+        budget.used = 0L;
+    }
+
+    /**
+     * @return The number of characters read since the budget was last reset
+     */
+    public long getStepsUsed() {
+        return budget.used;
+    }
+
+    @Override
+    public int length() {
+        return inner.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (++budget.used > budget.steps) {
+            throw new MatchBudgetExceededException(budget.steps);
+        }
+
+        return inner.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        // Shares our budget, so work done on the subsequence still counts
+        return new BudgetedCharSequence(inner.subSequence(start, end), budget);
+    }
+
+    @Override
+    public String toString() {
+        return inner.toString();
+    }
+
+    private static class Budget {
+        private final long steps;
+        private long used = 0L;
+
+        private Budget(long steps) {
+            this.steps = steps;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.TextChannel;
+
+/**
+ * A compiled, point-in-time view of the filter list, so that a message can be checked against every filter in a
+ * single pass on a single thread rather than handing each filter off to the executor separately.  Instances are built
+ * by {@link FilterListener} whenever the filter list changes and are immutable, with every pattern compiled up front,
+ * so any number of threads may share one without locking.
+ * <p>
+ * Before any regex is run, a {@link LiteralPrefilter} scans the message once to rule out the filters that can't
+ * possibly match it; callers get the result from {@link #findCandidates(MessageText)} and pass it to the match
+ * methods.  Filters with the {@code n} option are matched (and prefiltered) against the message's normalized view.
+ * Word lists are looked up in a {@link WordListIndex} at the same time, which tells exactly which of them match, so
+ * only the word lists that match are ever candidates.
+ * <p>
+ * Filters that run on the linear-time engine (see {@link FilterSettings#usesLinearEngine(RegexFilter)}) can't be slowed
+ * down by any message, so they're exempt from the step budget, and a message whose candidates are all linear-time
+ * filters or word lists needn't be subjected to a timeout either (see {@link #needsGuard(BitSet)}).
+ * <p>
+ * Filters are checked in order of decreasing action severity.  Under the {@code skip} terminal match policy (see
+ * {@link FilterSettings.TerminalMatchPolicy}), checking stops as soon as a filter with a terminal action matches.
+ * <p>
+ * Each set also has its own {@link VerdictCache}, so repeated copies of a message needn't be checked again, and
+ * publishing a new set invalidates every cached verdict.
+ * <p>
+ * If any filters are scoped to particular channels, {@link #forChannel(TextChannel)} narrows the set down to just the
+ * filters that apply in a given channel.  Each channel's set is compiled the first time a message is seen there and
+ * then reused, so channels where few filters apply cost little to check.  Role-scoped filters can't be narrowed down
+ * ahead of time, so callers exclude those that don't apply to a message's author with {@link #findExcluded(Member)}.
+ */
+class CompiledFilterSet {
+    private final List<MessageFilter> filters;
+    private final Pattern[] patterns; // null for word lists
+    private final com.google.re2j.Pattern[] linearPatterns; // null unless run on the linear-time engine
+    private final BitSet normalized = new BitSet();
+    private final BitSet wordLists = new BitSet();
+    private final BitSet linear = new BitSet();
+    private final BitSet roleScoped = new BitSet();
+    private final FilterStatistics[] statistics;
+    private final Map<MessageFilter, Integer> indices = new HashMap<>();
+    private final LiteralPrefilter rawPrefilter;
+    private final LiteralPrefilter normalizedPrefilter;
+    private final WordListIndex wordListIndex;
+    private final VerdictCache verdictCache;
+    private final boolean stopOnTerminalMatch;
+    private final FilterSettings settings;
+    private final boolean narrowable; // Whether any filter is channel scoped, and this set isn't already for one channel
+    private final Map<Long, CompiledFilterSet> channelSets = new ConcurrentHashMap<>();
+
+    private CompiledFilterSet(List<MessageFilter> filters, Function<MessageFilter, FilterStatistics> statisticsLookup, FilterSettings settings,
+                              boolean narrowed) {
+        this.filters = filters;
+        this.settings = settings;
+
+        patterns = new Pattern[filters.size()];
+        linearPatterns = new com.google.re2j.Pattern[filters.size()];
+        statistics = new FilterStatistics[filters.size()];
+        for (int i = 0; i < patterns.length; i++) {
+            MessageFilter filter = filters.get(i);
+
+            if (filter instanceof RegexFilter) {
+                patterns[i] = ((RegexFilter) filter).getPattern();
+                normalized.set(i, ((RegexFilter) filter).isNormalized());
+
+                if (settings.usesLinearEngine((RegexFilter) filter)) {
+                    linearPatterns[i] = ((RegexFilter) filter).getLinearPattern();
+                    linear.set(i);
+                }
+            } else {
+                wordLists.set(i);
+            }
+
+            statistics[i] = statisticsLookup.apply(filter);
+            roleScoped.set(i, filter.isRoleScoped());
+            indices.put(filter, i);
+        }
+
+        narrowable = !narrowed && filters.stream().anyMatch(MessageFilter::isChannelScoped);
+
+        BitSet raw = new BitSet();
+        raw.set(0, patterns.length);
+        raw.andNot(normalized);
+        raw.andNot(wordLists);
+
+        rawPrefilter = new LiteralPrefilter(patterns, raw);
+        normalizedPrefilter = new LiteralPrefilter(patterns, normalized);
+        wordListIndex = new WordListIndex(filters, wordLists);
+
+        verdictCache = settings.getVerdictCacheSize() > 0L ?
+            new VerdictCache(settings.getVerdictCacheSize(), settings.getVerdictCacheSeconds()) : null;
+        stopOnTerminalMatch = settings.getTerminalMatchPolicy() == FilterSettings.TerminalMatchPolicy.SKIP;
+    }
+
+    /**
+     * @param filters The filters to compile
+     * @param statisticsLookup Gets the statistics object that results for each filter should be recorded in
+     * @param settings The filter settings, for configuring the verdict cache
+     */
+    static CompiledFilterSet compile(Collection<? extends MessageFilter> filters, Function<MessageFilter, FilterStatistics> statisticsLookup,
+                                     FilterSettings settings) {
+        List<MessageFilter> bySeverity = new ArrayList<>(filters);
+        bySeverity.sort(Comparator.comparing(MessageFilter::getAction).reversed());
+
+        return new CompiledFilterSet(ImmutableList.copyOf(bySeverity), statisticsLookup, settings, false);
+    }
+
+    /**
+     * Must be called again if the channel is moved to a different category, which is why {@link FilterListener}
+     * recompiles the filters when that happens.
+     *
+     * @return The set of just the filters that apply in the given channel, which may be this set itself
+     */
+    CompiledFilterSet forChannel(TextChannel channel) {
+        if (!narrowable) {
+            return this;
+        }
+
+        return channelSets.computeIfAbsent(channel.getIdLong(), id -> {
+            List<MessageFilter> applicable = filters.stream()
+                .filter(filter -> filter.appliesIn(channel))
+                .collect(ImmutableList.toImmutableList());
+
+            return new CompiledFilterSet(applicable, filter -> statistics[indices.get(filter)], settings, true);
+        });
+    }
+
+    /**
+     * @return The indices of the role-scoped filters that don't apply to messages from the given member
+     */
+    BitSet findExcluded(Member member) {
+        BitSet retval = new BitSet();
+
+        for (int i = roleScoped.nextSetBit(0); i >= 0; i = roleScoped.nextSetBit(i + 1)) {
+            if (!filters.get(i).appliesTo(member)) {
+                retval.set(i);
+            }
+        }
+
+        return retval;
+    }
+
+    List<MessageFilter> getFilters() {
+        return filters;
+    }
+
+    int size() {
+        return filters.size();
+    }
+
+    FilterStatistics getStatistics(int index) {
+        return statistics[index];
+    }
+
+    /**
+     * Looks up the filters that matched a previous copy of the given message, counting each as a match in its
+     * statistics.
+     *
+     * @param excluded The filters that don't apply to the message's author, as returned by {@link #findExcluded(Member)}
+     * @return The filters that matched, or null if there's no cached verdict for this message
+     */
+    List<MessageFilter> getCachedVerdict(MessageText text, BitSet excluded) {
+        if (verdictCache == null) {
+            return null;
+        }
+
+        List<MessageFilter> retval = verdictCache.get(text, excluded);
+
+        if (retval != null) {
+            retval.forEach(filter -> statistics[indices.get(filter)].recordCachedMatch());
+        }
+
+        return retval;
+    }
+
+    /**
+     * Remembers which filters matched the given message.  Only call this if every candidate filter ran to completion.
+     */
+    void cacheVerdict(MessageText text, BitSet excluded, List<MessageFilter> matches) {
+        if (verdictCache != null) {
+            verdictCache.put(text, excluded, matches);
+        }
+    }
+
+    /**
+     * @return The statistics of this set's verdict cache, plus those of every per-channel set narrowed from it
+     */
+    CacheStats getVerdictCacheStats() {
+        CacheStats retval = verdictCache == null ? new CacheStats(0L, 0L, 0L, 0L, 0L, 0L) : verdictCache.stats();
+
+        for (CompiledFilterSet channelSet : channelSets.values()) {
+            retval = retval.plus(channelSet.getVerdictCacheStats());
+        }
+
+        return retval;
+    }
+
+    /**
+     * @return Whether any filter in this set matches against the normalized view of messages
+     */
+    boolean usesNormalizedText() {
+        return !normalized.isEmpty() || !wordLists.isEmpty();
+    }
+
+    /**
+     * @param candidates The filters to be checked against a message
+     * @return Whether any of the filters could take long enough on the message to need a step budget or timeout
+     */
+    boolean needsGuard(BitSet candidates) {
+        BitSet guarded = (BitSet) candidates.clone();
+        guarded.andNot(wordLists);
+        guarded.andNot(linear);
+        return !guarded.isEmpty();
+    }
+
+    /**
+     * @param text The message about to be checked
+     * @return The indices of the filters that could match the message; the rest needn't be checked
+     */
+    BitSet findCandidates(MessageText text) {
+        BitSet retval = rawPrefilter.findCandidates(text.getRaw());
+
+        if (!normalized.isEmpty()) {
+            retval.or(normalizedPrefilter.findCandidates(text.getNormalized()));
+        }
+
+        if (!wordLists.isEmpty()) {
+            retval.or(wordListIndex.findMatches(text.getNormalized()));
+        }
+
+        return retval;
+    }
+
+    /**
+     * Checks a message against the candidate filters in this set, starting with the filter at index {@code start},
+     * and reports each filter that matches to the given callback.
+     *
+     * @param subject The text of the message to check
+     * @param normalizedSubject The normalized view of the message; may be null if {@link #usesNormalizedText()} is
+     *                          false
+     * @param candidates The filters to check, as returned by {@link #findCandidates(MessageText)}
+     * @param start The index of the first filter to check
+     * @param callback Notified before each filter is checked, and again for each filter that matches
+     */
+    void match(CharSequence subject, CharSequence normalizedSubject, BitSet candidates, int start, MatchCallback callback) {
+        for (int i = candidates.nextSetBit(start); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            callback.checking(i);
+
+            // Word lists are only candidates if they've already been found to match
+            long startTime = System.nanoTime();
+            boolean matched = wordLists.get(i) || find(i, normalized.get(i) ? normalizedSubject : subject);
+            statistics[i].recordEvaluation(System.nanoTime() - startTime, matched);
+
+            if (matched) {
+                callback.matched(filters.get(i));
+
+                if (isFinal(filters.get(i))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks a message against the candidate filters in this set on the calling thread, allowing each filter to read
+     * at most {@code steps} characters from the message before its match is abandoned.
+     *
+     * @param text The message to check
+     * @param candidates The filters to check, as returned by {@link #findCandidates(MessageText)}
+     * @param steps The per-filter step budget; see {@link BudgetedCharSequence}
+     * @param callback Notified for each filter that matches, and for each filter whose match was abandoned or failed
+     */
+    void matchWithBudget(MessageText text, BitSet candidates, long steps, MatchCallback callback) {
+        BudgetedCharSequence rawSubject = new BudgetedCharSequence(text.getRaw(), steps);
+        BudgetedCharSequence normalizedSubject = !normalized.isEmpty() ? new BudgetedCharSequence(text.getNormalized(), steps) : null;
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            BudgetedCharSequence subject = normalized.get(i) ? normalizedSubject : rawSubject;
+
+            callback.checking(i);
+
+            try {
+                // Word lists are only candidates if they've already been found to match, and linear-time filters
+                // needn't be budgeted
+                long startTime = System.nanoTime();
+                boolean matched;
+
+                if (wordLists.get(i)) {
+                    matched = true;
+                } else if (linear.get(i)) {
+                    matched = linearPatterns[i].matcher(normalized.get(i) ? text.getNormalized() : text.getRaw()).find();
+                } else {
+                    subject.reset();
+                    matched = patterns[i].matcher(subject).find();
+                }
+
+                statistics[i].recordEvaluation(System.nanoTime() - startTime, matched);
+
+                if (matched) {
+                    callback.matched(filters.get(i));
+
+                    if (isFinal(filters.get(i))) {
+                        return;
+                    }
+                }
+            } catch (MatchBudgetExceededException e) {
+                statistics[i].recordTimeout();
+                callback.budgetExceeded(filters.get(i), e.getSteps());
+            } catch (StackOverflowError e) {
+                // java.util.regex recurses for each repetition of some constructs, so long messages can do this
+                statistics[i].recordTimeout();
+                callback.failed(filters.get(i), e);
+            }
+        }
+    }
+
+    private boolean find(int index, CharSequence subject) {
+        if (linear.get(index)) {
+            return linearPatterns[index].matcher(subject).find();
+        } else {
+            return patterns[index].matcher(subject).find();
+        }
+    }
+
+    /**
+     * @return Whether a match of the given filter means no further filters should be checked
+     */
+    boolean isFinal(MessageFilter filter) {
+        return stopOnTerminalMatch && filter.getAction().isTerminal();
+    }
+
+    interface MatchCallback {
+        void matched(MessageFilter filter);
+
+        default void checking(int index) {
+        }
+
+        default void budgetExceeded(MessageFilter filter, long steps) {
+        }
+
+        default void failed(MessageFilter filter, Throwable cause) {
+        }
+    }
+}
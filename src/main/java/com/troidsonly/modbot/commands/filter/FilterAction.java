@@ -35,6 +35,7 @@ package com.troidsonly.modbot.commands.filter;
 import java.util.HashMap;
 import java.util.Map;
 
+// Declared in order of increasing severity
 enum FilterAction {
     LOG_ONLY("log-only"), // All actions imply this one
     WARN_USER("warn-only"),
@@ -58,6 +59,14 @@ enum FilterAction {
         this.stringRepresentation = stringRepresentation;
     }
 
+    /**
+     * @return Whether this action removes the user's ability to keep posting, which makes acting on any other filters
+     * the same message tripped redundant
+     */
+    public boolean isTerminal() {
+        return this == DELETE_MESSAGE_AND_KICK || this == DELETE_MESSAGE_AND_CRYO || this == DELETE_MESSAGE_AND_BAN;
+    }
+
     @Override
     public String toString() {
         return stringRepresentation;
@@ -40,37 +40,73 @@ package com.troidsonly.modbot.commands.filter;
 import java.awt.Color;
 import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableSet;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.TextChannel;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
 import org.joda.time.format.PeriodFormatter;
 import org.joda.time.format.PeriodFormatterBuilder;
 
 import com.troidsonly.modbot.ModBot;
+import com.troidsonly.modbot.commands.log.CachedMessage;
+import com.troidsonly.modbot.commands.log.MessageCache;
 import com.troidsonly.modbot.hooks.CommandHandler;
 import com.troidsonly.modbot.utils.Miscellaneous;
+import com.troidsonly.modbot.utils.WorkerPool;
 
 class FilterCommandHandler implements CommandHandler {
     static final String CMD_FILTER = "filter";
     static final Set<String> COMMANDS = ImmutableSet.of(CMD_FILTER);
 
-    static final String SCMD_ADD = "add"; //Syntax: filter add [action] [regex] [expiry] [comment]
-    static final String SCMD_REM = "remove"; //Syntax: filter remove [regex]
+    static final String SCMD_ADD = "add"; //Syntax: filter add [action] [regex|words] [expiry] [comment]
+    static final String SCMD_FORCE_ADD = "forceadd"; //Syntax: filter forceadd [action] [regex|words] [expiry] [comment]
+    static final String SCMD_REM = "remove"; //Syntax: filter remove [regex|words]
     static final String SCMD_LIST = "list"; //Syntax: filter list
-    static final Set<String> SUBCOMMANDS = ImmutableSet.of(SCMD_ADD, SCMD_REM, SCMD_LIST);
+    static final String SCMD_ENABLE = "enable"; //Syntax: filter enable [regex|words]
+    static final String SCMD_SCOPE = "scope"; //Syntax: filter scope [regex|words] [channels, categories and roles|everywhere]
+    static final String SCMD_TEST = "test"; //Syntax: filter test [regex|words]
+    static final String SCMD_POOLS = "pools"; //Syntax: filter pools
+    static final String SCMD_STATS = "stats"; //Syntax: filter stats [count]
+    static final Set<String> SUBCOMMANDS = ImmutableSet.of(SCMD_ADD, SCMD_FORCE_ADD, SCMD_REM, SCMD_LIST, SCMD_ENABLE, SCMD_SCOPE,
+        SCMD_TEST, SCMD_POOLS, SCMD_STATS);
 
     static final String PERM_FILTER = "filter";
 
-    private static final String SYNTAX_HELP_1 = "```\n" + CMD_FILTER + ' ' + SCMD_ADD + " [action] [regex] [expiry] [comment]\n" +
-        CMD_FILTER + ' ' + SCMD_REM + " [regex]\n" +
-        CMD_FILTER + ' ' + SCMD_LIST + "\n```\n\n" +
+    private static final String SCOPE_EVERYWHERE = "everywhere";
+    private static final Pattern PATTERN_CHANNEL_MENTION = Pattern.compile("<#(\\d+)>");
+    private static final Pattern PATTERN_ROLE_MENTION = Pattern.compile("<@&(\\d+)>");
+
+    private static final int DEFAULT_STATS_COUNT = 5;
+    private static final int MAX_STATS_COUNT = 20;
+    private static final long MAX_DRY_RUN_SECONDS = 30L;
+    private static final long MAX_COST_CHECK_SECONDS = 10L;
+
+    private static final String SYNTAX_HELP_1 = "```\n" + CMD_FILTER + ' ' + SCMD_ADD + " [action] [regex|words] [expiry] [comment]\n" +
+        CMD_FILTER + ' ' + SCMD_FORCE_ADD + " [action] [regex|words] [expiry] [comment]\n" +
+        CMD_FILTER + ' ' + SCMD_REM + " [regex|words]\n" +
+        CMD_FILTER + ' ' + SCMD_LIST + "\n" +
+        CMD_FILTER + ' ' + SCMD_ENABLE + " [regex|words]\n" +
+        CMD_FILTER + ' ' + SCMD_SCOPE + " [regex|words] [channels, categories and roles|" + SCOPE_EVERYWHERE + "]\n" +
+        CMD_FILTER + ' ' + SCMD_TEST + " [regex|words]\n" +
+        CMD_FILTER + ' ' + SCMD_POOLS + "\n" +
+        CMD_FILTER + ' ' + SCMD_STATS + " [count]\n```\n\n" +
         "Where [action] is one of these actions:\n" +
         "`log-only`: When the filter is tripped, only notify the mod log that it happened (all other actions below imply this one)\n" +
         "`warn-only`: When the filter is tripped, warn the user in a DM\n" +
@@ -84,12 +120,39 @@ class FilterCommandHandler implements CommandHandler {
         "It is *strongly recommended* that new filters be \"tested\" in `log-only` mode first, to avoid accidental actions.  Once a fiter has " +
         "been tested for a while and does what it's supposed to, it can be removed and re-added with a more restrictive mode.";
     private static final String SYNTAX_HELP_2 = "[regex] is a Perl-Compatible Regular Expression in the format `/regex/flags`.  The regex portion may contain spaces.  " +
-        "The separator doesn't have to be `/`.\n\n" +
+        "The separator doesn't have to be `/`.  [flags] may include `i` to ignore case, and `n` to match against a normalized copy of the " +
+        "message, in which lookalike and styled letters (e.g., Cyrillic, fullwidth or accented) are replaced with plain ones, invisible " +
+        "characters are removed, and everything is lower case; regexes using `n` should be written in plain lower-case letters.  [flags] " +
+        "may also include `l` to run the regex on a linear-time engine that no message can slow down, provided it doesn't use " +
+        "backreferences, lookaround, possessive quantifiers or atomic groups, or syntax the two engines read differently (such as `$`, " +
+        "`\\b`, inline flags or `&&` in a character class); `list` shows which engine each regex runs on.\n\n" +
+        "[words] is a word list in the format `" + WordListFilter.SPEC_PREFIX + "word,another,prefix*`, with no spaces.  The filter is tripped " +
+        "by any message containing one of the listed words as a whole word, compared against the normalized copy of the message as with " +
+        "the `n` flag.  A word ending in `*` also matches any longer word starting with it.  Word lists are much cheaper than regexes, " +
+        "so prefer them for simple blocklists.\n\n" +
         "[expiry] is the time when the filter should remove itself, or 0 if it should remain until removed manually.  The value here can " +
         "either be the number of seconds until the filter removes itself, or a time specification in the format `1y2w3d4h5m6s`, meaning " +
         "\"one year, two weeks, three days, four hours, five minutes, and six seconds\".  All \"fields\" of a time specification in this format " +
         "are optional (e.g., 10d is equivalent to 0y0w10d0h0m0s).\n\n" +
-        "[comment] is a required comment describing the filter; for actions where the user is warned, this comment is shown in the warning.";
+        "[comment] is a required comment describing the filter; for actions where the user is warned, this comment is shown in the warning.\n\n" +
+        "New filters are checked for regex constructs prone to catastrophic backtracking, and benchmarked against worst-case inputs and recent " +
+        "messages.  Filters that fail these checks are refused; use `" + CMD_FILTER + ' ' + SCMD_FORCE_ADD + "` to add them anyway.\n\n" +
+        "Filters apply in every channel and to every member, unless limited with `" + CMD_FILTER + ' ' + SCMD_SCOPE + "` to certain " +
+        "channels (by mention or ID), categories (by ID) and/or members with certain roles (by mention or ID).  A filter scoped to both " +
+        "channels and roles only applies to members with one of the roles in one of the channels.  Use `" + SCOPE_EVERYWHERE + "` to " +
+        "remove a filter's scope.\n\n" +
+        "Filters that repeatedly time out are quarantined, and no longer checked against messages until fixed or re-enabled with `" +
+        CMD_FILTER + ' ' + SCMD_ENABLE + "`.\n\n" +
+        "`" + CMD_FILTER + ' ' + SCMD_TEST + "` tries out a regex or word list against every cached message, without taking any action, " +
+        "and reports how many messages it would have matched and how long it took.  It gives up after " + MAX_DRY_RUN_SECONDS +
+        " seconds, reporting on just the messages checked by then.\n\n" +
+        "`" + CMD_FILTER + ' ' + SCMD_POOLS + "` shows how busy the thread pools used to check messages and act on matches are.\n\n" +
+        "`" + CMD_FILTER + ' ' + SCMD_STATS + "` lists the slowest and most frequently tripped filters; [count] is how many of each to " +
+        "show, and defaults to " + DEFAULT_STATS_COUNT + '.';
+
+    private static final int MAX_CORPUS_SAMPLE = 500;
+    private static final int MAX_DRY_RUN_SAMPLES = 5;
+    private static final int MAX_SAMPLE_LENGTH = 100;
 
     private final FilterListener parent;
 
@@ -107,7 +170,7 @@ class FilterCommandHandler implements CommandHandler {
             return SUBCOMMANDS;
         }
 
-        if (commands.size() == 2 && commands.get(0).equals(CMD_FILTER) && commands.get(1).equals(SCMD_ADD)) {
+        if (commands.size() == 2 && commands.get(0).equals(CMD_FILTER) && (commands.get(1).equals(SCMD_ADD) || commands.get(1).equals(SCMD_FORCE_ADD))) {
             return ImmutableSet.copyOf(FilterAction.getFromStringMap().keySet());
         }
 
@@ -126,18 +189,19 @@ class FilterCommandHandler implements CommandHandler {
 
                 switch (commands.get(1)) {
                     case SCMD_ADD:
+                    case SCMD_FORCE_ADD:
                         if (commands.size() >= 3) {
                             FilterAction action = FilterAction.getFromStringMap().get(commands.get(2));
-                            Matcher matcher = RegexFilter.PATTERN_VALID_FILTER.matcher(remainder);
+                            String spec = findSpec(remainder);
+                            boolean wordList = WordListFilter.isWordListSpec(remainder);
 
-                            if (matcher.find()) {
-                                String regex = matcher.group();
+                            if (spec != null) {
 
-                                remainder = remainder.substring(regex.length()).trim();
+                                remainder = remainder.substring(spec.length()).trim();
 
                                 if (remainder.isEmpty()) {
                                     Miscellaneous.respond(event, "Too few arguments!  Syntax: `" + CMD_FILTER + ' ' +
-                                        SCMD_ADD + " [action] [regex] [expiry] [comment]` - or just run the `" + CMD_FILTER +
+                                        SCMD_ADD + " [action] [regex|words] [expiry] [comment]` - or just run the `" + CMD_FILTER +
                                         "` with no arguments to see full help.");
                                     return;
                                 }
@@ -166,74 +230,59 @@ class FilterCommandHandler implements CommandHandler {
 
                                 if (remainder.isEmpty()) {
                                     Miscellaneous.respond(event, "Too few arguments!  Syntax: `" + CMD_FILTER + ' ' +
-                                        SCMD_ADD + " [action] [regex] [expiry] [comment]` - or just run the `" + CMD_FILTER +
+                                        SCMD_ADD + " [action] [regex|words] [expiry] [comment]` - or just run the `" + CMD_FILTER +
                                         "` with no arguments to see full help.");
                                     return;
                                 }
 
-                                RegexFilter newFilter;
+                                MessageFilter newFilter;
 
                                 try {
-                                    newFilter = new RegexFilter(regex, event.getAuthor().getId(), Instant.now().getEpochSecond(), expiry, action, remainder);
+                                    if (wordList) {
+                                        newFilter = new WordListFilter(spec, event.getAuthor().getId(), Instant.now().getEpochSecond(), expiry, action, remainder);
+                                    } else {
+                                        newFilter = new RegexFilter(spec, event.getAuthor().getId(), Instant.now().getEpochSecond(), expiry, action, remainder);
+                                    }
                                 } catch (Exception e) {
                                     Miscellaneous.respond(event, "Failed to construct filter: " + e.toString());
                                     return;
                                 }
 
-                                synchronized (parent.getFilterRepository()) {
-                                    List<RegexFilter> filterList = parent.getFilterRepository().getFilterList();
-
-                                    if (filterList.contains(newFilter)) {
-                                        Miscellaneous.respond(event, "I already have a filter with that regular expression.  If you wish to change a filter's settings, please delete then re-add it.");
-                                        return;
-                                    }
-
-                                    EmbedBuilder embedBuilder = new EmbedBuilder();
-
-                                    if (event.getMember() == null) {
-                                        embedBuilder.setAuthor("(Some webhook)");
+                                // Benchmarking can take a while, so don't hold up the event thread meanwhile.  Word lists
+                                // cost a hash lookup per word of a message, so there's nothing to check.
+                                MessageFilter filterToAdd = newFilter;
+                                boolean force = commands.get(1).equals(SCMD_FORCE_ADD);
+                                CompletableFuture<String> costCheck = newFilter instanceof RegexFilter ?
+                                    CompletableFuture.supplyAsync(() -> checkFilterCost(event, (RegexFilter) filterToAdd), ForkJoinPool.commonPool()) :
+                                    CompletableFuture.completedFuture(null);
+
+                                costCheck.whenComplete((costProblems, e) -> {
+                                    if (e != null) {
+                                        Miscellaneous.respond(event, "Failed to benchmark filter: " + e.toString());
                                     } else {
-                                        embedBuilder.setAuthor(Miscellaneous.qualifyName(event.getMember()), null, event.getMember().getUser().getAvatarUrl());
+                                        addFilter(event, filterToAdd, force, costProblems);
                                     }
-
-                                    embedBuilder.setTitle("Added a filter");
-                                    embedBuilder.setDescription('`' + newFilter.getRegex() + '`');
-                                    embedBuilder.addField("With comment", newFilter.getComment(), false);
-                                    embedBuilder.addField("Added at", Miscellaneous.unixEpochToRfc1123DateTimeString(newFilter.getCreationTime()), false);
-                                    embedBuilder.addField("To expire", expiry == null ? "Never" : "at " + Miscellaneous.unixEpochToRfc1123DateTimeString(newFilter.getExpiry()), false);
-                                    embedBuilder.addField("Performing action", newFilter.getAction().toString(), false);
-                                    embedBuilder.setFooter(getClass().getSimpleName() + " | " + Miscellaneous.unixEpochToRfc1123DateTimeString(Instant.now().getEpochSecond()), null);
-                                    embedBuilder.setColor(new Color(0xFF8800));
-
-                                    parent.getLogger().sendToLog(embedBuilder.build(), event.getMember());
-
-                                    filterList.add(newFilter);
-                                    parent.sync();
-                                }
-                                Miscellaneous.respond(event, "Filter added!");
+                                });
                             } else {
-                                Miscellaneous.respond(event, "Did not detect a valid regex specification.\n" +
-                                    "Syntax: `" + CMD_FILTER + ' ' + SCMD_ADD + " [action] [regex] [expiry] [comment]` - or just run the `" + CMD_FILTER + "` with no arguments to see full help.");
+                                Miscellaneous.respond(event, "Did not detect a valid regex or word list specification.\n" +
+                                    "Syntax: `" + CMD_FILTER + ' ' + SCMD_ADD + " [action] [regex|words] [expiry] [comment]` - or just run the `" + CMD_FILTER + "` with no arguments to see full help.");
                             }
                         } else {
                             Miscellaneous.respond(event, "Unrecognized action - action must be one of: `" + Miscellaneous.getStringRepresentation(FilterAction.getFromStringMap().keySet(), "`, `") + "`\n" +
-                                "Syntax: `" + CMD_FILTER + ' ' + SCMD_ADD + " [action] [regex] [expiry] [comment]`");
+                                "Syntax: `" + CMD_FILTER + ' ' + SCMD_ADD + " [action] [regex|words] [expiry] [comment]`");
                         }
                         break;
                     case SCMD_REM:
                         if (remainder.isEmpty()) {
-                            Miscellaneous.respond(event, "You need to tell me what filter to delete!  Syntax: `" + CMD_FILTER + ' ' + SCMD_REM + " [regex]`");
-                        } else if (!RegexFilter.isValidRegex(remainder)) {
-                            Miscellaneous.respond(event, '`' + remainder + "` doesn't seem to be a valid regex specification.");
+                            Miscellaneous.respond(event, "You need to tell me what filter to delete!  Syntax: `" + CMD_FILTER + ' ' + SCMD_REM + " [regex|words]`");
+                        } else if (!RegexFilter.isValidRegex(remainder) && !WordListFilter.isWordListSpec(remainder)) {
+                            Miscellaneous.respond(event, '`' + remainder + "` doesn't seem to be a valid regex or word list specification.");
                         } else {
-                            RegexFilter temp = new RegexFilter(remainder, "", 0, null, FilterAction.LOG_ONLY, "");
                             synchronized (parent.getFilterRepository()) {
-                                List<RegexFilter> filterList = parent.getFilterRepository().getFilterList();
-                                int index = filterList.indexOf(temp);
+                                MessageFilter oldFilter = parent.getFilterRepository().removeFilter(remainder);
 
-                                if (index != -1) {
-                                    RegexFilter oldFilter = filterList.get(index);
-                                    filterList.remove(index);
+                                if (oldFilter != null) {
+                                    parent.filterListChanged();
 
                                     EmbedBuilder embedBuilder = new EmbedBuilder();
                                     if (event.getMember() == null) {
@@ -264,17 +313,217 @@ class FilterCommandHandler implements CommandHandler {
                         }
                         break;
                     case SCMD_LIST:
+                        List<MessageFilter> filters;
+                        synchronized (parent.getFilterRepository()) {
+                            filters = parent.getFilterRepository().getAllFilters();
+                        }
+
+                        StringBuilder output = new StringBuilder("I have the following filters saved:\n");
+
+                        filters.stream()
+                            .sorted()
+                            .map(filter -> filterToString(event, filter))
+                            .forEach(filter -> output.append("* ").append(filter).append("\n"));
+
+                        Miscellaneous.splitMessage(output.toString()).forEach(part -> event.getChannel().sendMessage(part).queue());
+                        break;
+                    case SCMD_ENABLE:
+                        if (remainder.isEmpty()) {
+                            Miscellaneous.respond(event, "You need to tell me what filter to enable!  Syntax: `" + CMD_FILTER + ' ' + SCMD_ENABLE + " [regex|words]`");
+                            break;
+                        }
+
+                        synchronized (parent.getFilterRepository()) {
+                            MessageFilter filter = parent.getFilterRepository().getFilter(remainder);
+
+                            if (filter == null) {
+                                Miscellaneous.respond(event, "Could not find a matching filter to be enabled.");
+                            } else if (!parent.releaseFromQuarantine(filter)) {
+                                Miscellaneous.respond(event, "That filter isn't quarantined.");
+                            } else {
+                                EmbedBuilder embedBuilder = new EmbedBuilder();
+                                if (event.getMember() == null) {
+                                    embedBuilder.setAuthor("(Some webhook)");
+                                } else {
+                                    embedBuilder.setAuthor(Miscellaneous.qualifyName(event.getMember()), null,
+                                        event.getMember().getUser().getAvatarUrl());
+                                }
+                                embedBuilder.setTitle("Filter released from quarantine");
+                                embedBuilder.setDescription('`' + filter.getSpec() + '`');
+                                embedBuilder.addField("Performing action", filter.getAction().toString(), false);
+                                embedBuilder.setFooter(getClass().getSimpleName() + " | " + Miscellaneous.unixEpochToRfc1123DateTimeString(Instant.now().getEpochSecond()), null);
+                                embedBuilder.setColor(new Color(0xFF8800));
+
+                                parent.getLogger().sendToLog(embedBuilder.build(), event.getMember());
+
+                                Miscellaneous.respond(event, "Filter enabled");
+                                parent.sync();
+                            }
+                        }
+                        break;
+                    case SCMD_SCOPE:
+                        String scopedSpec = findSpec(remainder);
+
+                        if (scopedSpec == null) {
+                            Miscellaneous.respond(event, "Did not detect a valid regex or word list specification.  Syntax: `" + CMD_FILTER + ' ' +
+                                SCMD_SCOPE + " [regex|words] [channels, categories and roles|" + SCOPE_EVERYWHERE + "]`");
+                            break;
+                        }
+
+                        String scopeSpec = remainder.substring(scopedSpec.length()).trim();
+                        List<String> channelScope = new ArrayList<>();
+                        List<String> roleScope = new ArrayList<>();
+
+                        if (scopeSpec.isEmpty()) {
+                            Miscellaneous.respond(event, "You need to tell me where the filter should apply, or `" + SCOPE_EVERYWHERE + "`.  Syntax: `" +
+                                CMD_FILTER + ' ' + SCMD_SCOPE + " [regex|words] [channels, categories and roles|" + SCOPE_EVERYWHERE + "]`");
+                            break;
+                        } else if (!scopeSpec.equals(SCOPE_EVERYWHERE)) {
+                            for (String target : scopeSpec.split("\\s+")) {
+                                Matcher channelMention = PATTERN_CHANNEL_MENTION.matcher(target);
+                                Matcher roleMention = PATTERN_ROLE_MENTION.matcher(target);
+
+                                if (channelMention.matches() && event.getGuild().getTextChannelById(channelMention.group(1)) != null) {
+                                    channelScope.add(channelMention.group(1));
+                                } else if (roleMention.matches() && event.getGuild().getRoleById(roleMention.group(1)) != null) {
+                                    roleScope.add(roleMention.group(1));
+                                } else if (event.getGuild().getTextChannelById(target) != null || event.getGuild().getCategoryById(target) != null) {
+                                    channelScope.add(target);
+                                } else if (event.getGuild().getRoleById(target) != null) {
+                                    roleScope.add(target);
+                                } else {
+                                    Miscellaneous.respond(event, '`' + target + "` isn't a channel, category or role I know of.");
+                                    return;
+                                }
+                            }
+                        }
+
                         synchronized (parent.getFilterRepository()) {
-                            List<RegexFilter> filters = parent.getFilterRepository().getFilterList();
+                            MessageFilter filter = parent.getFilterRepository().getFilter(scopedSpec);
+
+                            if (filter == null) {
+                                Miscellaneous.respond(event, "Could not find a matching filter to be scoped.");
+                                break;
+                            }
+
+                            filter.setScope(channelScope, roleScope);
+                            parent.filterListChanged();
+
+                            EmbedBuilder embedBuilder = new EmbedBuilder();
+                            if (event.getMember() == null) {
+                                embedBuilder.setAuthor("(Some webhook)");
+                            } else {
+                                embedBuilder.setAuthor(Miscellaneous.qualifyName(event.getMember()), null,
+                                    event.getMember().getUser().getAvatarUrl());
+                            }
+                            embedBuilder.setTitle("Filter scope changed");
+                            embedBuilder.setDescription('`' + filter.getSpec() + '`');
+                            embedBuilder.addField("Now applies", scopeToString(filter), false);
+                            embedBuilder.addField("Performing action", filter.getAction().toString(), false);
+                            embedBuilder.setFooter(getClass().getSimpleName() + " | " + Miscellaneous.unixEpochToRfc1123DateTimeString(Instant.now().getEpochSecond()), null);
+                            embedBuilder.setColor(new Color(0xFF8800));
+
+                            parent.getLogger().sendToLog(embedBuilder.build(), event.getMember());
+
+                            Miscellaneous.respond(event, "Filter scope changed");
+                            parent.sync();
+                        }
+                        break;
+                    case SCMD_TEST:
+                        String testSpec = findSpec(remainder);
+
+                        if (testSpec == null) {
+                            Miscellaneous.respond(event, "Did not detect a valid regex or word list specification.  Syntax: `" + CMD_FILTER + ' ' +
+                                SCMD_TEST + " [regex|words]`");
+                            break;
+                        }
+
+                        MessageFilter testFilter;
+
+                        try {
+                            if (WordListFilter.isWordListSpec(testSpec)) {
+                                testFilter = new WordListFilter(testSpec, "", 0L, null, FilterAction.LOG_ONLY, "");
+                            } else {
+                                testFilter = new RegexFilter(testSpec, "", 0L, null, FilterAction.LOG_ONLY, "");
+                            }
+                        } catch (Exception e) {
+                            Miscellaneous.respond(event, "Failed to construct filter: " + e.toString());
+                            break;
+                        }
 
-                            StringBuilder output = new StringBuilder("I have the following filters saved:\n");
+                        // Checking thousands of messages can take a while, so don't hold up the event thread meanwhile
+                        List<CachedMessage> testMessages = getCachedMessages(event);
+                        CompletableFuture.supplyAsync(() -> dryRunToString(testFilter, testMessages), ForkJoinPool.commonPool())
+                            .whenComplete((testOutput, e) -> {
+                                if (e != null) {
+                                    Miscellaneous.respond(event, "Failed to test filter: " + e.toString());
+                                } else {
+                                    Miscellaneous.splitMessage(testOutput).forEach(part -> event.getChannel().sendMessage(part).queue());
+                                }
+                            });
+                        break;
+                    case SCMD_POOLS:
+                        StringBuilder poolOutput = new StringBuilder("Filter thread pools:\n");
+
+                        for (WorkerPool pool : parent.getWorkerPools()) {
+                            poolOutput.append("* `").append(pool.getName()).append("`: ")
+                                .append(pool.getActiveCount()).append(" active of ")
+                                .append(pool.getPoolSize()).append(" threads (max ")
+                                .append(pool.getMaximumPoolSize()).append("); queue ")
+                                .append(pool.getQueueDepth()).append('/').append(pool.getQueueCapacity()).append("; ")
+                                .append(pool.getCompletedTaskCount()).append(" tasks completed; ")
+                                .append(pool.getRejectionCount()).append(" rejected (policy: ")
+                                .append(pool.getRejectionPolicy()).append(")\n");
+                        }
 
-                            filters.stream()
-                                .map(filter -> regexFilterToString(event, filter))
-                                .forEach(filter -> output.append("* ").append(filter).append("\n"));
+                        event.getChannel().sendMessage(poolOutput.toString()).queue();
+                        break;
+                    case SCMD_STATS:
+                        int count = DEFAULT_STATS_COUNT;
+
+                        if (!remainder.isEmpty()) {
+                            try {
+                                count = Math.max(1, Math.min(MAX_STATS_COUNT, Integer.parseInt(remainder)));
+                            } catch (NumberFormatException e) {
+                                Miscellaneous.respond(event, '`' + remainder + "` isn't a number.  Syntax: `" + CMD_FILTER + ' ' + SCMD_STATS + " [count]`");
+                                return;
+                            }
+                        }
 
-                            event.getChannel().sendMessage(output.toString()).queue();
+                        // Quarantined filters aren't in the compiled set, but they're likely to be the slowest of all
+                        List<MessageFilter> statsFilters;
+                        synchronized (parent.getFilterRepository()) {
+                            statsFilters = parent.getFilterRepository().getAllFilters();
                         }
+
+                        Map<MessageFilter, FilterStatistics> filterStatistics = new HashMap<>();
+                        statsFilters.forEach(filter -> filterStatistics.put(filter, parent.getStatistics(filter)));
+
+                        Comparator<MessageFilter> bySlowness = Comparator.comparingLong((MessageFilter f) -> filterStatistics.get(f).getTimeouts())
+                            .thenComparingLong(f -> filterStatistics.get(f).getQuantileNanos(0.99))
+                            .thenComparingLong(f -> filterStatistics.get(f).getMeanNanos());
+                        Comparator<MessageFilter> byHits = Comparator.comparingLong((MessageFilter f) -> filterStatistics.get(f).getMatches());
+
+                        StringBuilder statsOutput = new StringBuilder("Slowest filters:\n");
+                        statsFilters.stream()
+                            .sorted(bySlowness.reversed())
+                            .limit(count)
+                            .forEach(f -> statsOutput.append("* ").append(statisticsToString(f, filterStatistics.get(f))).append('\n'));
+
+                        statsOutput.append("\nMost frequently tripped filters:\n");
+                        statsFilters.stream()
+                            .sorted(byHits.reversed())
+                            .limit(count)
+                            .forEach(f -> statsOutput.append("* ").append(statisticsToString(f, filterStatistics.get(f))).append('\n'));
+
+                        CacheStats verdictCacheStats = parent.getVerdictCacheStats();
+                        statsOutput.append("\nVerdict cache: ")
+                            .append(String.format("%.1f", verdictCacheStats.hitRate() * 100.0)).append("% hit rate (")
+                            .append(verdictCacheStats.hitCount()).append(" repeated messages not re-checked, ")
+                            .append(verdictCacheStats.missCount()).append(" misses, ")
+                            .append(verdictCacheStats.evictionCount()).append(" evictions)\n");
+
+                        Miscellaneous.splitMessage(statsOutput.toString()).forEach(part -> event.getChannel().sendMessage(part).queue());
                         break;
                 }
             } else {
@@ -286,13 +535,229 @@ class FilterCommandHandler implements CommandHandler {
         }
     }
 
-    private String regexFilterToString(GuildMessageReceivedEvent event, RegexFilter filter) {
+    /**
+     * Adds a new filter once its cost has been checked, unless it was found to be too slow.
+     *
+     * @param force Whether to add the filter even if it looks like it could be very slow
+     * @param costProblems Everything wrong with the filter's performance, or null if it looks OK
+     */
+    private void addFilter(GuildMessageReceivedEvent event, MessageFilter newFilter, boolean force, String costProblems) {
+        if (costProblems != null && !force) {
+            Miscellaneous.respond(event, "Refusing to add this filter, as it looks like it could be very slow:\n" + costProblems +
+                "\nIf you're sure, you can add it anyway with `" + CMD_FILTER + ' ' + SCMD_FORCE_ADD + "` instead.");
+            return;
+        }
+
+        synchronized (parent.getFilterRepository()) {
+            if (parent.getFilterRepository().getAllFilters().contains(newFilter)) {
+                Miscellaneous.respond(event, "I already have a filter with that specification.  If you wish to change a filter's settings, please delete then re-add it.");
+                return;
+            }
+
+            EmbedBuilder embedBuilder = new EmbedBuilder();
+
+            if (event.getMember() == null) {
+                embedBuilder.setAuthor("(Some webhook)");
+            } else {
+                embedBuilder.setAuthor(Miscellaneous.qualifyName(event.getMember()), null, event.getMember().getUser().getAvatarUrl());
+            }
+
+            embedBuilder.setTitle("Added a filter");
+            embedBuilder.setDescription('`' + newFilter.getSpec() + '`');
+            embedBuilder.addField("With comment", newFilter.getComment(), false);
+            embedBuilder.addField("Added at", Miscellaneous.unixEpochToRfc1123DateTimeString(newFilter.getCreationTime()), false);
+            embedBuilder.addField("To expire", newFilter.getExpiry() == null ? "Never" : "at " + Miscellaneous.unixEpochToRfc1123DateTimeString(newFilter.getExpiry()), false);
+            embedBuilder.addField("Performing action", newFilter.getAction().toString(), false);
+            if (newFilter instanceof RegexFilter) {
+                embedBuilder.addField("Measured cost", costToString((RegexFilter) newFilter), false);
+                embedBuilder.addField("Regex engine", parent.getSettings().usesLinearEngine((RegexFilter) newFilter) ?
+                    "Linear-time" : "java.util.regex", false);
+                if (((RegexFilter) newFilter).getLinearIncompatibility() != null) {
+                    embedBuilder.addField("Not eligible for the linear-time engine, as it",
+                        ((RegexFilter) newFilter).getLinearIncompatibility(), false);
+                }
+            }
+            if (costProblems != null) {
+                embedBuilder.addField("Performance warnings overridden", costProblems, false);
+            }
+            embedBuilder.setFooter(getClass().getSimpleName() + " | " + Miscellaneous.unixEpochToRfc1123DateTimeString(Instant.now().getEpochSecond()), null);
+            embedBuilder.setColor(new Color(0xFF8800));
+
+            parent.getLogger().sendToLog(embedBuilder.build(), event.getMember());
+
+            parent.getFilterRepository().addFilter(newFilter);
+            parent.filterListChanged();
+            parent.sync();
+        }
+        Miscellaneous.respond(event, "Filter added!");
+    }
+
+    /**
+     * Analyses and benchmarks a new filter, recording the measured cost on the filter.
+     *
+     * @return A description of everything wrong with the filter's performance, or null if it looks OK
+     */
+    private String checkFilterCost(GuildMessageReceivedEvent event, RegexFilter filter) {
+        long threshold = parent.getSettings().getCostThreshold();
+        List<String> problems = new ArrayList<>();
+
+        if (parent.getSettings().usesLinearEngine(filter)) {
+            // Nothing to worry about; the linear-time engine can't backtrack, and these benchmarks are for java.util.regex
+            return null;
+        }
+
+        if (filter.isLinear()) {
+            problems.add("* Will be run on java.util.regex instead of the linear-time engine, as the linear-time engine " +
+                filter.getLinearIncompatibility());
+        }
+
+        RegexCostAnalyzer.findRiskyConstructs(filter.getPattern()).stream()
+            .map(risk -> "* " + risk)
+            .forEach(problems::add);
+
+        // Each input is limited to the threshold, but there are a lot of them, so the check as a whole needs a limit too
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(MAX_COST_CHECK_SECONDS);
+
+        List<String> adversarialInputs = RegexCostAnalyzer.generateAdversarialInputs(filter.getPattern());
+        RegexCostAnalyzer.Cost cost = RegexCostAnalyzer.measure(filter.getPattern(), adversarialInputs, threshold, deadline);
+
+        if (!cost.isExceeded() && !cost.isOutOfTime()) {
+            List<String> corpus = sampleMessageCorpus(event);
+
+            if (filter.isNormalized()) {
+                corpus.replaceAll(MessageNormalizer::normalize);
+            }
+
+            cost = cost.merge(RegexCostAnalyzer.measure(filter.getPattern(), corpus, threshold, deadline));
+        }
+
+        filter.setMeasuredCost(cost.getWorstSteps(), cost.getWorstNanos());
+
+        if (cost.isExceeded()) {
+            String worstInput = cost.getWorstInput();
+            if (worstInput.length() > 40) {
+                worstInput = worstInput.substring(0, 40) + "...";
+            }
+
+            problems.add("* Took more than " + threshold + " steps on the input `" + worstInput + "` (length " +
+                cost.getWorstInput().length() + ')');
+        } else if (cost.isOutOfTime()) {
+            problems.add("* Benchmarking didn't finish within " + MAX_COST_CHECK_SECONDS + " seconds (gave up after " +
+                cost.getInputsTried() + " inputs)");
+        }
+
+        return problems.isEmpty() ? null : String.join("\n", problems);
+    }
+
+    private List<CachedMessage> getCachedMessages(GuildMessageReceivedEvent event) {
+        MessageCache messageCache = parent.getLogger().getMessageCache();
+        List<CachedMessage> messages = new ArrayList<>();
+
+        if (messageCache == null) {
+            return messages;
+        }
+
+        for (TextChannel channel : event.getGuild().getTextChannels()) {
+            messages.addAll(messageCache.getMessagesByChannel(channel));
+        }
+
+        return messages;
+    }
+
+    private List<String> sampleMessageCorpus(GuildMessageReceivedEvent event) {
+        List<String> corpus = getCachedMessages(event).stream()
+            .map(CachedMessage::getFullContent)
+            .collect(Collectors.toList());
+
+        if (corpus.size() <= MAX_CORPUS_SAMPLE) {
+            return corpus;
+        }
+
+        // Take evenly-spaced messages, so every channel is represented
+        List<String> sample = new ArrayList<>(MAX_CORPUS_SAMPLE);
+        double stride = (double) corpus.size() / MAX_CORPUS_SAMPLE;
+
+        for (int i = 0; i < MAX_CORPUS_SAMPLE; i++) {
+            sample.add(corpus.get((int) (i * stride)));
+        }
+
+        return sample;
+    }
+
+    private String dryRunToString(MessageFilter filter, List<CachedMessage> messages) {
+        // Always cap the time spent per match, even if filters are normally run with a timeout instead
+        long steps = parent.getSettings().getMatchStepBudget() > 0L ? parent.getSettings().getMatchStepBudget() : parent.getSettings().getCostThreshold();
+
+        long startTime = System.nanoTime();
+        FilterDryRun dryRun = new FilterDryRun(filter, messages, steps, startTime + TimeUnit.SECONDS.toNanos(MAX_DRY_RUN_SECONDS),
+            MAX_DRY_RUN_SAMPLES, parent.getSettings());
+        FilterDryRun.Result result = ForkJoinPool.commonPool().invoke(dryRun);
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        FilterStatistics statistics = dryRun.getStatistics();
+        StringBuilder sb = new StringBuilder("Dry run of `")
+            .append(filter.getSpec())
+            .append("` against ").append(messages.size()).append(" cached messages");
+
+        if (result.getChecked() < messages.size()) {
+            sb.append(" (aborted after ").append(result.getChecked()).append(" messages, as it took longer than ")
+                .append(MAX_DRY_RUN_SECONDS).append(" seconds)");
+        }
+
+        sb.append(": ").append(result.getHits()).append(" would have matched");
+
+        if (result.getAbandoned() > 0) {
+            sb.append(", and ").append(result.getAbandoned()).append(" exceeded the budget of ").append(steps).append(" steps");
+        }
+
+        sb.append(".\nMatch time: ")
+            .append(String.format("%.3f", statistics.getMeanNanos() / 1e6)).append(" ms mean, ")
+            .append(String.format("%.3f", statistics.getQuantileNanos(0.99) / 1e6)).append(" ms or less 99% of the time, over ")
+            .append(statistics.getEvaluations()).append(" messages not ruled out by the prefilter; ")
+            .append(String.format("%.1f", elapsedNanos / 1e6)).append(" ms in total.\n");
+
+        if (!result.getSamples().isEmpty()) {
+            sb.append("\nSample matches:\n");
+
+            for (CachedMessage sample : result.getSamples()) {
+                String text = sample.getFullContent();
+                if (text.length() > MAX_SAMPLE_LENGTH) {
+                    text = text.substring(0, MAX_SAMPLE_LENGTH) + "...";
+                }
+
+                sb.append("* ").append(sample.getChannelMention()).append(", ")
+                    .append(sample.getAuthorShortName()).append(": `")
+                    .append(text.replace('`', '\'')).append("`\n");
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String costToString(RegexFilter filter) {
+        if (filter.getCostSteps() == null) {
+            return "(not measured)";
+        }
+
+        return filter.getCostSteps() + " steps, " + String.format("%.2f", filter.getCostNanos() / 1e6) + " ms worst case";
+    }
+
+    private static String statisticsToString(MessageFilter filter, FilterStatistics statistics) {
+        return '`' + filter.getSpec() + "`" + (filter.isQuarantined() ? " (quarantined)" : "") + ": " +
+            statistics.getEvaluations() + " runs, " +
+            statistics.getMatches() + " matches, " +
+            statistics.getTimeouts() + " timeouts; " +
+            String.format("%.3f", statistics.getMeanNanos() / 1e6) + " ms mean, " +
+            String.format("%.3f", statistics.getQuantileNanos(0.99) / 1e6) + " ms or less 99% of the time";
+    }
+
+    private String filterToString(GuildMessageReceivedEvent event, MessageFilter filter) {
         Objects.requireNonNull(filter);
 
         Member filterCreator = event.getGuild().getMemberById(filter.getCreatorUid());
 
-        StringBuilder sb = new StringBuilder("Regex: `")
-            .append(filter.getRegex())
+        StringBuilder sb = new StringBuilder(filter instanceof WordListFilter ? "Word list: `" : "Regex: `")
+            .append(filter.getSpec())
             .append("`; Action: ")
             .append(filter.getAction().toString())
             .append("; created by ")
@@ -301,6 +766,30 @@ class FilterCommandHandler implements CommandHandler {
             .append(Miscellaneous.unixEpochToRfc1123DateTimeString(filter.getCreationTime()))
             .append("; ");
 
+        if (filter.isChannelScoped() || filter.isRoleScoped()) {
+            sb.append("applies ")
+                .append(scopeToString(filter))
+                .append("; ");
+        }
+
+        if (filter.isQuarantined()) {
+            sb.append("**quarantined** since ")
+                .append(Miscellaneous.unixEpochToRfc1123DateTimeString(filter.getQuarantineTime()))
+                .append("; ");
+        }
+
+        if (filter instanceof RegexFilter) {
+            RegexFilter regexFilter = (RegexFilter) filter;
+
+            if (parent.getSettings().usesLinearEngine(regexFilter)) {
+                sb.append("runs on the linear-time engine; ");
+            } else if (regexFilter.isLinear() || parent.getSettings().getRegexEngine() == FilterSettings.RegexEngine.LINEAR) {
+                sb.append("kept on java.util.regex, as the linear-time engine ")
+                    .append(regexFilter.getLinearIncompatibility())
+                    .append("; ");
+            }
+        }
+
         if (filter.getExpiry() == null) {
             sb.append("never expires; ");
         } else {
@@ -309,6 +798,12 @@ class FilterCommandHandler implements CommandHandler {
                 .append("; ");
         }
 
+        if (filter instanceof RegexFilter && ((RegexFilter) filter).getCostSteps() != null) {
+            sb.append("cost ")
+                .append(costToString((RegexFilter) filter))
+                .append("; ");
+        }
+
         sb.append("Comment: `")
             .append(filter.getComment())
             .append('`');
@@ -316,6 +811,29 @@ class FilterCommandHandler implements CommandHandler {
         return sb.toString();
     }
 
+    /**
+     * @return The specification of the filter at the start of the given text, or null if there isn't one
+     */
+    private static String findSpec(String text) {
+        if (WordListFilter.isWordListSpec(text)) {
+            return text.split(" ")[0];
+        }
+
+        Matcher matcher = RegexFilter.PATTERN_VALID_FILTER.matcher(text);
+        return matcher.find() ? matcher.group() : null;
+    }
+
+    private static String scopeToString(MessageFilter filter) {
+        String channels = filter.isChannelScoped() ? "in " + filter.getChannelScope().stream()
+            .map(id -> "<#" + id + '>')
+            .collect(Collectors.joining(", ")) : "in every channel";
+        String roles = filter.isRoleScoped() ? "to members with " + filter.getRoleScope().stream()
+            .map(id -> "<@&" + id + '>')
+            .collect(Collectors.joining(", ")) : "to every member";
+
+        return channels + ' ' + roles;
+    }
+
     private ZonedDateTime processTimeSpec(String timespec) throws IllegalArgumentException {
         PeriodFormatter formatter = new PeriodFormatterBuilder()
             .appendYears().appendSuffix("y")
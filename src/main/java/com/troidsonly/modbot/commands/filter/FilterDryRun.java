@@ -0,0 +1,193 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import com.troidsonly.modbot.commands.log.CachedMessage;
+
+/**
+ * Runs a prospective filter over a collection of past messages to see what it would have matched, without acting on
+ * anything.  The messages are split between the threads of a fork-join pool, and each is checked exactly as
+ * {@link FilterRunner} would, except that every match is subject to a step budget (see {@link BudgetedCharSequence})
+ * whatever the bot's settings, so a bad pattern can't tie up the pool.  The run as a whole also has a deadline, after
+ * which the remaining messages are skipped; {@link Result#getChecked()} tells how far it got.
+ */
+class FilterDryRun extends RecursiveTask<FilterDryRun.Result> {
+    private static final int MESSAGES_PER_TASK = 64;
+
+    private final CompiledFilterSet filterSet;
+    private final List<CachedMessage> messages;
+    private final int start;
+    private final int end;
+    private final long steps;
+    private final long deadline;
+    private final int maxSamples;
+
+    /**
+     * @param filter The filter to try out
+     * @param messages The messages to check it against
+     * @param steps The step budget for each match
+     * @param deadline The {@link System#nanoTime()} after which no more messages are checked
+     * @param maxSamples The most matching messages to return
+     * @param settings The filter settings, for choosing the regex engine
+     */
+    FilterDryRun(MessageFilter filter, List<CachedMessage> messages, long steps, long deadline, int maxSamples, FilterSettings settings) {
+        // Compiling a one-filter set reuses all the prefiltering, normalization and engine selection done for real
+        this(CompiledFilterSet.compile(Collections.singletonList(filter), f -> new FilterStatistics(), settings), messages,
+            0, messages.size(), steps, deadline, maxSamples);
+    }
+
+    private FilterDryRun(CompiledFilterSet filterSet, List<CachedMessage> messages, int start, int end, long steps, long deadline,
+                         int maxSamples) {
+        this.filterSet = filterSet;
+        this.messages = messages;
+        this.start = start;
+        this.end = end;
+        this.steps = steps;
+        this.deadline = deadline;
+        this.maxSamples = maxSamples;
+    }
+
+    @Override
+    protected Result compute() {
+        if (end - start > MESSAGES_PER_TASK) {
+            int middle = (start + end) >>> 1;
+
+            FilterDryRun left = new FilterDryRun(filterSet, messages, start, middle, steps, deadline, maxSamples);
+            FilterDryRun right = new FilterDryRun(filterSet, messages, middle, end, steps, deadline, maxSamples);
+
+            left.fork();
+            Result rightResult = right.compute();
+            return left.join().merge(rightResult, maxSamples);
+        }
+
+        Result result = new Result();
+
+        for (int i = start; i < end; i++) {
+            if (System.nanoTime() - deadline > 0L) {
+                break;
+            }
+
+            result.checked++;
+            CachedMessage message = messages.get(i);
+            MessageText text = new MessageText(message.getFullContent());
+            boolean[] matched = new boolean[1];
+
+            filterSet.matchWithBudget(text, filterSet.findCandidates(text), steps, new CompiledFilterSet.MatchCallback() {
+                @Override
+                public void matched(MessageFilter filter) {
+                    matched[0] = true;
+                }
+
+                @Override
+                public void budgetExceeded(MessageFilter filter, long steps) {
+                    result.abandoned++;
+                }
+
+                @Override
+                public void failed(MessageFilter filter, Throwable cause) {
+                    result.abandoned++;
+                }
+            });
+
+            if (matched[0]) {
+                result.hits++;
+
+                if (result.samples.size() < maxSamples) {
+                    result.samples.add(message);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return Timings of every match that was run; messages ruled out by the prefilter aren't counted
+     */
+    FilterStatistics getStatistics() {
+        return filterSet.getStatistics(0);
+    }
+
+    static class Result {
+        private int checked = 0;
+        private int hits = 0;
+        private int abandoned = 0;
+        private final List<CachedMessage> samples = new ArrayList<>();
+
+        private Result merge(Result other, int maxSamples) {
+            checked += other.checked;
+            hits += other.hits;
+            abandoned += other.abandoned;
+
+            for (CachedMessage sample : other.samples) {
+                if (samples.size() >= maxSamples) {
+                    break;
+                }
+
+                samples.add(sample);
+            }
+
+            return this;
+        }
+
+        /**
+         * @return The number of messages checked before the deadline passed
+         */
+        int getChecked() {
+            return checked;
+        }
+
+        int getHits() {
+            return hits;
+        }
+
+        /**
+         * @return The number of messages the filter ran out of budget on, and so may or may not have matched
+         */
+        int getAbandoned() {
+            return abandoned;
+        }
+
+        /**
+         * @return The first few messages the filter matched
+         */
+        List<CachedMessage> getSamples() {
+            return samples;
+        }
+    }
+}
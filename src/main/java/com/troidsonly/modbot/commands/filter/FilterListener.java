@@ -34,19 +34,34 @@ package com.troidsonly.modbot.commands.filter;
 
 import java.awt.Color;
 import java.time.Instant;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.ReadyEvent;
+import net.dv8tion.jda.api.events.channel.text.update.TextChannelUpdateParentEvent;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageUpdateEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 
 import com.troidsonly.modbot.commands.cryo.CryoHandler;
 import com.troidsonly.modbot.commands.log.LogListener;
@@ -55,31 +70,98 @@ import com.troidsonly.modbot.persistence.PersistenceManager;
 import com.troidsonly.modbot.persistence.PersistenceWrapper;
 import com.troidsonly.modbot.security.AccessControl;
 import com.troidsonly.modbot.utils.Miscellaneous;
+import com.troidsonly.modbot.utils.WorkerPool;
 
 public class FilterListener extends ListenerAdapter {
+    private static final long STATISTICS_PERSIST_INTERVAL_MINUTES = 5L;
+    private static final long MAX_SEEN_MESSAGES = 50000L;
+    private static final long SEEN_MESSAGE_EXPIRY_HOURS = 24L;
+
     private final AccessControl acl;
     private final LogListener logger;
     private final PersistenceManager<FilterRepository> pm;
+    private final PersistenceManager<FilterStatisticsRepository> statisticsPm;
+    private final PersistenceManager<StrikeLedgerRepository> strikesPm;
     private final CryoHandler cryoHandler;
-    private final ExecutorService executorService;
+    private final WorkerPool filterRunnerPool;
+    private final WorkerPool regexMatchPool;
+    private final WorkerPool restActionPool;
+    private final FilterSettings settings;
     private final String fantasyString;
 
     private final FilterCommandHandler filterCommandHandler;
     private final FilterRepository filterRepository;
-
+    private final ScheduledExecutorService scheduler;
+
+    // Message ID to a hash of the message's text when last checked, so edits can be checked only if needed
+    private final Cache<Long, Long> seenTextHashes = CacheBuilder.newBuilder()
+        .maximumSize(MAX_SEEN_MESSAGES)
+        .expireAfterWrite(SEEN_MESSAGE_EXPIRY_HOURS, TimeUnit.HOURS)
+        .build();
+
+    // Keyed by filter specification.  Entries are added when a filter is compiled, and removed along with the filter.
+    private final Map<String, FilterStatistics> statistics = new ConcurrentHashMap<>();
+    // Keyed by filter specification.  Entries are added when a filter first times out, and removed along with the filter.
+    private final Map<String, TimeoutWindow> timeoutWindows = new ConcurrentHashMap<>();
+    // Null if strike escalation is disabled
+    private final StrikeLedger strikeLedger;
+
+    // Filters that have an expiry, soonest-expiring first (see MessageFilter.compareTo()).  Guarded by filterRepository.
+    private final PriorityQueue<MessageFilter> expiryQueue = new PriorityQueue<>();
+
+    // Replaced wholesale (never modified) by writers holding the lock on filterRepository, so that FilterRunners can read
+    // the current filters without taking any locks or copying anything.
+    private volatile CompiledFilterSet compiledFilterSet;
+    // Verdict cache statistics from filter sets that have since been replaced.  Guarded by filterRepository.
+    private CacheStats retiredVerdictCacheStats = new CacheStats(0L, 0L, 0L, 0L, 0L, 0L);
+    private ScheduledFuture<?> expiryTask = null;
     private JDA jda = null;
 
-    public FilterListener(AccessControl acl, LogListener logger, PersistenceWrapper<?> wrapper, CryoHandler cryoHandler, ExecutorService executorService, String fantasyString) {
+    public FilterListener(AccessControl acl, LogListener logger, PersistenceWrapper<?> wrapper, CryoHandler cryoHandler,
+                          WorkerPool filterRunnerPool, WorkerPool regexMatchPool, WorkerPool restActionPool, FilterSettings settings,
+                          String fantasyString) {
         this.acl = acl;
         this.logger = logger;
         pm = wrapper.getPersistenceManager("FilterListener", FilterRepository.class);
+        statisticsPm = wrapper.getPersistenceManager("FilterStatistics", FilterStatisticsRepository.class);
+        strikesPm = wrapper.getPersistenceManager("FilterStrikes", StrikeLedgerRepository.class);
         this.cryoHandler = cryoHandler;
-        this.executorService = executorService;
+        this.filterRunnerPool = filterRunnerPool;
+        this.regexMatchPool = regexMatchPool;
+        this.restActionPool = restActionPool;
+        this.settings = settings;
         this.fantasyString = fantasyString;
 
         filterCommandHandler = new FilterCommandHandler(this);
         filterRepository = pm.get().orElseGet(FilterRepository::empty);
-        filterRepository.setGetFilterListCallback(this::doExpiryChecks);
+
+        statisticsPm.get().orElseGet(FilterStatisticsRepository::empty).getStatistics()
+            .forEach((regex, record) -> statistics.put(regex, FilterStatistics.fromRecord(record)));
+
+        if (settings.isStrikeEscalationEnabled()) {
+            strikeLedger = new StrikeLedger(settings.getMaxStrikeThreshold(), TimeUnit.SECONDS.toMillis(settings.getStrikeWindowSeconds()));
+            strikeLedger.restore(strikesPm.get().orElseGet(StrikeLedgerRepository::empty).getStrikes());
+        } else {
+            strikeLedger = null;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("filterScheduler-thread%d")
+            .daemon(true)
+            .build());
+
+        synchronized (filterRepository) {
+            filterListChanged();
+        }
+
+        scheduler.scheduleWithFixedDelay(this::persistStatistics, STATISTICS_PERSIST_INTERVAL_MINUTES,
+            STATISTICS_PERSIST_INTERVAL_MINUTES, TimeUnit.MINUTES);
+
+        if (strikeLedger != null) {
+            // Strikes are saved periodically rather than as they happen, so recording one never waits on the disk
+            scheduler.scheduleWithFixedDelay(this::persistStrikes, STATISTICS_PERSIST_INTERVAL_MINUTES,
+                STATISTICS_PERSIST_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        }
     }
 
     public CommandHandler getCommandHandler() {
@@ -89,6 +171,9 @@ public class FilterListener extends ListenerAdapter {
     @Override
     public void onReady(ReadyEvent event) {
         jda = event.getJDA();
+
+        // Expiry is only ever checked once we're able to log it, so catch up on anything that expired while offline.
+        doExpiryChecks();
     }
 
     synchronized void sync() {
@@ -96,10 +181,165 @@ public class FilterListener extends ListenerAdapter {
         pm.sync();
     }
 
+    private synchronized void persistStatistics() {
+        FilterStatisticsRepository repository = FilterStatisticsRepository.empty();
+        statistics.forEach((regex, filterStatistics) -> repository.getStatistics().put(regex, filterStatistics.toRecord()));
+
+        statisticsPm.persist(repository);
+        statisticsPm.sync();
+    }
+
+    private synchronized void persistStrikes() {
+        StrikeLedgerRepository repository = StrikeLedgerRepository.empty();
+        repository.getStrikes().putAll(strikeLedger.prune(System.currentTimeMillis()));
+
+        strikesPm.persist(repository);
+        strikesPm.sync();
+    }
+
     FilterRepository getFilterRepository() {
         return filterRepository;
     }
 
+    /**
+     * Gets an immutable snapshot of the current filter list in compiled form.  Safe to call without holding any locks.
+     */
+    CompiledFilterSet getCompiledFilterSet() {
+        return compiledFilterSet;
+    }
+
+    /**
+     * Unlike {@link CompiledFilterSet#getStatistics(int)}, this also covers filters that aren't in the compiled set
+     * because they've been quarantined.
+     *
+     * @return The statistics recorded for the given filter, which are empty if it has never been run
+     */
+    FilterStatistics getStatistics(MessageFilter filter) {
+        FilterStatistics retval = statistics.get(filter.getSpec());
+        return retval == null ? new FilterStatistics() : retval;
+    }
+
+    /**
+     * Must be called, while holding the lock on the filter repository, whenever filters are added or removed.
+     */
+    void filterListChanged() {
+        recompile();
+
+        expiryQueue.clear();
+        filterRepository.getAllFilters().stream()
+            .filter(filter -> filter.getExpiry() != null)
+            .forEach(expiryQueue::add);
+
+        scheduleExpiryChecks();
+    }
+
+    private void recompile() {
+        List<MessageFilter> filters = filterRepository.getAllFilters();
+        Set<String> specs = filters.stream()
+            .map(MessageFilter::getSpec)
+            .collect(Collectors.toSet());
+        statistics.keySet().retainAll(specs);
+        timeoutWindows.keySet().retainAll(specs);
+
+        if (compiledFilterSet != null) {
+            retiredVerdictCacheStats = retiredVerdictCacheStats.plus(compiledFilterSet.getVerdictCacheStats());
+        }
+
+        List<MessageFilter> enabledFilters = filters.stream()
+            .filter(filter -> !filter.isQuarantined())
+            .collect(Collectors.toList());
+
+        compiledFilterSet = CompiledFilterSet.compile(enabledFilters,
+            filter -> statistics.computeIfAbsent(filter.getSpec(), spec -> new FilterStatistics()), settings);
+    }
+
+    /**
+     * Must be called whenever a filter times out, exceeds its step budget, or otherwise fails to finish matching a
+     * message.  Filters that do so too often are quarantined, so this must only be called when the filter's own match
+     * went over the limit: not when the message as a whole took too long, nor when it waited too long for a thread.
+     */
+    void filterTimedOut(MessageFilter filter) {
+        if (settings.getQuarantineThreshold() == 0) {
+            return;
+        }
+
+        TimeoutWindow window = timeoutWindows.computeIfAbsent(filter.getSpec(),
+            spec -> new TimeoutWindow(TimeUnit.SECONDS.toNanos(settings.getQuarantineWindowSeconds())));
+
+        if (window.record(System.nanoTime()) < settings.getQuarantineThreshold()) {
+            return;
+        }
+
+        synchronized (filterRepository) {
+            // Look the filter up again, as it may have been removed, or quarantined by another thread, in the meantime
+            MessageFilter current = filterRepository.getFilter(filter.getSpec());
+
+            if (current == null || current.isQuarantined()) {
+                return;
+            }
+
+            current.setQuarantineTime(Instant.now().getEpochSecond());
+            recompile();
+            sync();
+        }
+
+        EmbedBuilder embedBuilder = new EmbedBuilder();
+        embedBuilder.setTitle("Filter quarantined for repeatedly timing out");
+        embedBuilder.setDescription('`' + filter.getSpec() + '`');
+        embedBuilder.addField("Timeouts", settings.getQuarantineThreshold() + " within " + settings.getQuarantineWindowSeconds() +
+            " seconds", false);
+        embedBuilder.addField("Performing action", filter.getAction().toString(), false);
+        embedBuilder.addField("To re-enable", "Fix or remove the filter, or run `" + FilterCommandHandler.CMD_FILTER + ' ' +
+            FilterCommandHandler.SCMD_ENABLE + ' ' + filter.getSpec() + '`', false);
+        embedBuilder.setFooter(getClass().getSimpleName() + " | " + Miscellaneous.unixEpochToRfc1123DateTimeString(
+            Instant.now().getEpochSecond()), null);
+        embedBuilder.setColor(new Color(0xFF0000));
+
+        logger.sendToLog(embedBuilder.build(), (User) null, null);
+    }
+
+    /**
+     * Must be called while holding the lock on the filter repository.
+     *
+     * @return Whether the filter was quarantined before being released
+     */
+    boolean releaseFromQuarantine(MessageFilter filter) {
+        if (!filter.isQuarantined()) {
+            return false;
+        }
+
+        filter.setQuarantineTime(null);
+
+        TimeoutWindow window = timeoutWindows.get(filter.getSpec());
+        if (window != null) {
+            window.clear();
+        }
+
+        recompile();
+        return true;
+    }
+
+    private void scheduleExpiryChecks() {
+        if (expiryTask != null) {
+            expiryTask.cancel(false);
+            expiryTask = null;
+        }
+
+        MessageFilter nextToExpire = expiryQueue.peek();
+
+        if (nextToExpire != null) {
+            long delay = Math.max(0L, nextToExpire.getExpiry() - Instant.now().getEpochSecond());
+            expiryTask = scheduler.schedule(this::doExpiryChecks, delay, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @return The ledger of users' recent strikes, or null if strike escalation is disabled
+     */
+    StrikeLedger getStrikeLedger() {
+        return strikeLedger;
+    }
+
     CryoHandler getCryoHandler() {
         return cryoHandler;
     }
@@ -112,83 +352,155 @@ public class FilterListener extends ListenerAdapter {
         return logger;
     }
 
-    ExecutorService getExecutorService() {
-        return executorService;
+    /**
+     * @return The pool that regex matches are run on when they're subject to a timeout rather than a step budget
+     */
+    WorkerPool getRegexMatchPool() {
+        return regexMatchPool;
+    }
+
+    /**
+     * @return The pool that actions taken against a message's author (deleting, kicking, etc.) are run on
+     */
+    WorkerPool getRestActionPool() {
+        return restActionPool;
+    }
+
+    /**
+     * @return Verdict cache statistics accumulated across every filter set since startup
+     */
+    CacheStats getVerdictCacheStats() {
+        synchronized (filterRepository) {
+            return retiredVerdictCacheStats.plus(compiledFilterSet.getVerdictCacheStats());
+        }
+    }
+
+    List<WorkerPool> getWorkerPools() {
+        return ImmutableList.of(filterRunnerPool, regexMatchPool, restActionPool);
     }
 
-    private void doExpiryChecks(List<RegexFilter> filterList) {
+    FilterSettings getSettings() {
+        return settings;
+    }
+
+    private void doExpiryChecks() {
         if (jda == null) {
             return;
         }
 
-        Collections.sort(filterList);
-
         synchronized (filterRepository) {
-            Iterator<RegexFilter> itr = filterList.iterator();
+            long now = Instant.now().getEpochSecond();
+            boolean changed = false;
 
-            while (itr.hasNext()) {
-                RegexFilter filter = itr.next();
+            while (!expiryQueue.isEmpty() && expiryQueue.peek().getExpiry() <= now) {
+                MessageFilter filter = expiryQueue.poll();
 
-                if (filter.getExpiry() != null && filter.getExpiry() < Instant.now().getEpochSecond()) {
-                    EmbedBuilder embedBuilder = new EmbedBuilder();
-                    User addingUser = jda.getUserById(filter.getCreatorUid());
+                EmbedBuilder embedBuilder = new EmbedBuilder();
+                User addingUser = jda.getUserById(filter.getCreatorUid());
 
-                    embedBuilder.setTitle("Filter expired and automatically removed");
-                    embedBuilder.setDescription('`' + filter.getRegex() + '`');
-                    embedBuilder.addField("Performing action", filter.getAction().toString(), false);
+                embedBuilder.setTitle("Filter expired and automatically removed");
+                embedBuilder.setDescription('`' + filter.getSpec() + '`');
+                embedBuilder.addField("Performing action", filter.getAction().toString(), false);
 
-                    String addingUserString;
+                String addingUserString;
 
-                    if (addingUser == null) {
-                        addingUserString = "(unknown)";
+                if (addingUser == null) {
+                    addingUserString = "(unknown)";
+                } else {
+                    if (Miscellaneous.userHasDiscriminator(addingUser)) {
+                        addingUserString = addingUser.getName() + '#' + addingUser.getDiscriminator();
                     } else {
-                        if (Miscellaneous.userHasDiscriminator(addingUser)) {
-                            addingUserString = addingUser.getName() + '#' + addingUser.getDiscriminator();
-                        } else {
-                            addingUserString = "@" + addingUser.getName();
-                        }
+                        addingUserString = "@" + addingUser.getName();
                     }
-
-                    embedBuilder.addField("Originally added by", addingUserString, false);
-                    embedBuilder.addField("Originally added at",
-                            Miscellaneous.unixEpochToRfc1123DateTimeString(filter.getCreationTime()), false);
-                    embedBuilder.addField("Original comment", filter.getComment(), false);
-                    embedBuilder.setFooter(
-                            getClass().getSimpleName() + " | " + Miscellaneous.unixEpochToRfc1123DateTimeString(
-                                    Instant.now().getEpochSecond()), null);
-                    embedBuilder.setColor(new Color(0xAAAAAA));
-
-                    logger.sendToLog(embedBuilder.build(), (User) null, null);
-                    itr.remove();
-                } else {
-                    break;
                 }
+
+                embedBuilder.addField("Originally added by", addingUserString, false);
+                embedBuilder.addField("Originally added at",
+                        Miscellaneous.unixEpochToRfc1123DateTimeString(filter.getCreationTime()), false);
+                embedBuilder.addField("Original comment", filter.getComment(), false);
+                embedBuilder.setFooter(
+                        getClass().getSimpleName() + " | " + Miscellaneous.unixEpochToRfc1123DateTimeString(
+                                Instant.now().getEpochSecond()), null);
+                embedBuilder.setColor(new Color(0xAAAAAA));
+
+                logger.sendToLog(embedBuilder.build(), (User) null, null);
+                filterRepository.removeFilter(filter.getSpec());
+                changed = true;
+            }
+
+            if (changed) {
+                recompile();
+                sync();
             }
+
+            scheduleExpiryChecks();
         }
+    }
 
-        sync();
+    @Override
+    public void onTextChannelUpdateParent(TextChannelUpdateParentEvent event) {
+        // Which category-scoped filters apply in the channel has changed, so its filter set must be narrowed again
+        synchronized (filterRepository) {
+            recompile();
+        }
     }
 
     @Override
     public void onGuildMessageReceived(GuildMessageReceivedEvent event) {
         Objects.requireNonNull(event);
-        applyFilters(Miscellaneous.getFullMessage(event.getMessage()), event);
+        applyFilters(event.getMessage(), event.getMember(), false);
+    }
+
+    @Override
+    public void onGuildMessageUpdate(GuildMessageUpdateEvent event) {
+        Objects.requireNonNull(event);
+        applyFilters(event.getMessage(), event.getMember(), true);
     }
 
-    private void applyFilters(String fullMessage, GuildMessageReceivedEvent event) {
-        Member member = event.getMember();
+    private void applyFilters(Message message, Member member, boolean edited) {
+        MessageText text = new MessageText(Miscellaneous.getFullMessage(message));
+        String fullMessage = text.getRaw();
 
-        if (member != null && jda.getSelfUser().equals(member.getUser())) {
+        if (member == null) {
+            // Webhook and system messages have no member who could be acted against
+            return;
+        }
+
+        if (jda.getSelfUser().equals(member.getUser())) {
             // Ignore the bot outright
             return;
         }
 
+        // Edits that don't change the text needn't be checked again; this also skips the edits Discord makes itself,
+        // such as when adding link embeds.  This must compare the raw text, not the normalized view: an edit that only
+        // swaps a lookalike character for the real one may not change the normalized view, but can trip a raw filter.
+        long textHash = text.getContentHash().asLong();
+        Long previousHash = seenTextHashes.getIfPresent(message.getIdLong());
+        seenTextHashes.put(message.getIdLong(), textHash);
+
+        if (edited && previousHash != null && previousHash == textHash) {
+            return;
+        }
+
         if ((fullMessage.startsWith(fantasyString + FilterCommandHandler.CMD_FILTER) || fullMessage.startsWith(FilterCommandHandler.CMD_FILTER)) && acl.hasPermission(member, FilterCommandHandler.PERM_FILTER)) {
             // The message appears to be a filter command from an authorized user; also ignore these outright
             return;
         }
 
-        FilterRunner runner = new FilterRunner(this, event, member, fullMessage);
-        executorService.submit(runner);
+        CompiledFilterSet filterSet = compiledFilterSet.forChannel(message.getTextChannel());
+
+        if (filterSet.size() == 0) {
+            // No filters apply in this channel
+            return;
+        }
+
+        FilterRunner runner = new FilterRunner(this, filterSet, message, member, text, edited);
+
+        try {
+            filterRunnerPool.execute(runner);
+        } catch (RejectedExecutionException e) {
+            logger.sendToLog("**WARNING:** A message from " + Miscellaneous.qualifyName(member) + " in " +
+                message.getTextChannel().getAsMention() + " was not checked against the filters, as the filter runner pool is saturated");
+        }
     }
 }
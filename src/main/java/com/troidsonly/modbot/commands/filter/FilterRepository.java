@@ -34,28 +34,71 @@ package com.troidsonly.modbot.commands.filter;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Consumer;
 
 class FilterRepository {
     private List<RegexFilter> filterList;
-
-    private transient Consumer<List<RegexFilter>> getFilterListCallback = null;
+    private List<WordListFilter> wordListFilterList; // null in repositories saved before word lists were added
 
     public static FilterRepository empty() {
         FilterRepository retval = new FilterRepository();
         retval.filterList = new ArrayList<>();
+        retval.wordListFilterList = new ArrayList<>();
         return retval;
     }
 
     public List<RegexFilter> getFilterList() {
-        if (getFilterListCallback != null) {
-            getFilterListCallback.accept(filterList);
+        return filterList;
+    }
+
+    public List<WordListFilter> getWordListFilterList() {
+        if (wordListFilterList == null) {
+            wordListFilterList = new ArrayList<>();
         }
 
-        return filterList;
+        return wordListFilterList;
     }
 
-    void setGetFilterListCallback(Consumer<List<RegexFilter>> consumer) {
-        getFilterListCallback = consumer;
+    /**
+     * @return A copy of the filters of every kind
+     */
+    public List<MessageFilter> getAllFilters() {
+        List<MessageFilter> retval = new ArrayList<>(filterList);
+        retval.addAll(getWordListFilterList());
+        return retval;
+    }
+
+    public void addFilter(MessageFilter filter) {
+        if (filter instanceof WordListFilter) {
+            getWordListFilterList().add((WordListFilter) filter);
+        } else {
+            filterList.add((RegexFilter) filter);
+        }
+    }
+
+    /**
+     * @return The filter with the given specification, or null if there isn't one
+     */
+    public MessageFilter getFilter(String spec) {
+        List<? extends MessageFilter> list = WordListFilter.isWordListSpec(spec) ? getWordListFilterList() : filterList;
+
+        return list.stream()
+            .filter(filter -> filter.getSpec().equals(spec))
+            .findFirst()
+            .orElse(null);
+    }
+
+    /**
+     * @return The removed filter, or null if there was no filter with the given specification
+     */
+    public MessageFilter removeFilter(String spec) {
+        List<? extends MessageFilter> list = WordListFilter.isWordListSpec(spec) ? getWordListFilterList() : filterList;
+
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).getSpec().equals(spec)) {
+                return list.remove(i);
+            }
+        }
+
+        return null;
     }
 }
@@ -35,248 +35,494 @@ package com.troidsonly.modbot.commands.filter;
 import java.awt.Color;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
-import net.dv8tion.jda.api.entities.PrivateChannel;
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.Role;
-import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.requests.RestAction;
 
 import com.troidsonly.modbot.utils.Miscellaneous;
 
 public class FilterRunner implements Runnable {
+    private static final long FILTER_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
     private final FilterListener parent;
-    private final GuildMessageReceivedEvent event;
+    private final CompiledFilterSet filterSet;
+    private final Message offendingMessage;
+    private final Guild guild;
     private final Member member;
+    private final MessageText text;
     private final String message;
-
-    public FilterRunner(FilterListener parent, GuildMessageReceivedEvent event, Member member, String message) {
+    private final boolean edited;
+
+    // Cleared if any filter was abandoned or not run, in which case the verdict mustn't be cached
+    private boolean complete = true;
+
+    /**
+     * @param parent The listener that received the message
+     * @param filterSet The filters that apply in the message's channel
+     * @param offendingMessage The message to check
+     * @param member The author of the message
+     * @param text The text of the message to check
+     * @param edited Whether the message is being checked because it was edited
+     */
+    public FilterRunner(FilterListener parent, CompiledFilterSet filterSet, Message offendingMessage, Member member, MessageText text,
+                        boolean edited) {
         this.parent = Objects.requireNonNull(parent);
-        this.event = Objects.requireNonNull(event);
+        this.filterSet = Objects.requireNonNull(filterSet);
+        this.offendingMessage = Objects.requireNonNull(offendingMessage);
         this.member = Objects.requireNonNull(member);
-        this.message = Objects.requireNonNull(message);
+        this.text = Objects.requireNonNull(text);
+        this.edited = edited;
+        guild = offendingMessage.getGuild();
+        message = text.getRaw();
     }
 
     @Override
     public void run() {
-        // For thread safety, make a copy of the filter list.  This is computationally more expensive, but means we
-        // don't have to block on synchronization for as long and minimizes the effect of multiple FilterRunner threads
-        // blocking each other.
+        BitSet excluded = filterSet.findExcluded(member);
+        List<MessageFilter> matches = filterSet.getCachedVerdict(text, excluded);
+
+        if (matches == null) {
+            BitSet candidates = filterSet.findCandidates(text);
+            candidates.andNot(excluded);
+
+            if (!filterSet.needsGuard(candidates)) {
+                // Nothing left to check can be slowed down by this message, so there's no need to bother with the pool
+                matches = matchDirectly(filterSet, candidates);
+            } else if (parent.getSettings().getMatchStepBudget() > 0L) {
+                matches = matchWithBudget(filterSet, candidates);
+            } else {
+                matches = matchWithTimeout(filterSet, candidates);
+            }
 
-        List<RegexFilter> filterList;
+            if (complete) {
+                filterSet.cacheVerdict(text, excluded, matches);
+            }
+        }
 
-        synchronized (parent.getFilterRepository()) {
-            filterList = new ArrayList<>(parent.getFilterRepository().getFilterList());
+        if (matches.isEmpty()) {
+            return;
         }
 
-        for (RegexFilter filter : filterList) {
-            Pattern pattern = filter.getPattern();
+        // Only the most severe match is acted on; acting on the others too would at best repeat the same REST calls
+        MessageFilter mostSevere = Collections.max(matches, Comparator.comparing(MessageFilter::getAction));
+
+        for (MessageFilter filter : matches) {
+            MessageFilter supersededBy = filter == mostSevere ? null : mostSevere;
 
-            PatternMatchCallable pmc = new PatternMatchCallable(pattern, message);
+            try {
+                parent.getRestActionPool().execute(() -> handleMatch(filter, supersededBy));
+            } catch (RejectedExecutionException e) {
+                parent.getLogger().sendToLog("**WARNING:** `" + filter.getSpec() + "` matched a message from " +
+                    Miscellaneous.qualifyName(member) + ", but no action was taken as the REST action pool is saturated");
+            }
+        }
+    }
 
-            Future<Boolean> future = parent.getExecutorService().submit(pmc);
+    private List<MessageFilter> matchDirectly(CompiledFilterSet filterSet, BitSet candidates) {
+        List<MessageFilter> matches = new ArrayList<>();
+        filterSet.match(message, filterSet.usesNormalizedText() ? text.getNormalized() : null, candidates, 0, matches::add);
+        return matches;
+    }
 
-            boolean response;
+    private List<MessageFilter> matchWithBudget(CompiledFilterSet filterSet, BitSet candidates) {
+        List<MessageFilter> matches = new ArrayList<>();
+
+        filterSet.matchWithBudget(text, candidates, parent.getSettings().getMatchStepBudget(), new CompiledFilterSet.MatchCallback() {
+            @Override
+            public void matched(MessageFilter filter) {
+                matches.add(filter);
+            }
+
+            @Override
+            public void budgetExceeded(MessageFilter filter, long steps) {
+                complete = false;
+                parent.filterTimedOut(filter);
+                parent.getLogger().sendToLog("**WARNING:** `" + filter.getSpec() + "` exceeded its budget of " + steps +
+                    " steps and was aborted");
+            }
+
+            @Override
+            public void failed(MessageFilter filter, Throwable cause) {
+                complete = false;
+                parent.filterTimedOut(filter);
+                parent.getLogger().sendToLog("An error occurred while executing filter `" + filter.getSpec() + "`: " + cause.toString());
+            }
+        });
+
+        return matches;
+    }
+
+    private List<MessageFilter> matchWithTimeout(CompiledFilterSet filterSet, BitSet candidates) {
+        List<MessageFilter> matches = new ArrayList<>();
+        int start = 0;
+
+        // The whole filter set is checked in one go on a single executor thread, but each filter gets its own timeout:
+        // the clock restarts whenever the callable moves on to the next filter, so a set of filters that are each fast
+        // can't add up to a timeout blamed on whichever one happened to be running.  Should a filter time out or fail,
+        // we report it and then resume with the filter after it, so one bad filter can't stop the rest from being
+        // checked.
+        while (candidates.nextSetBit(start) >= 0) {
+            FilterSetMatchCallable callable = new FilterSetMatchCallable(filterSet, candidates, start, text);
+            Future<List<MessageFilter>> future;
 
             try {
-                response = future.get(1, TimeUnit.SECONDS);
-            } catch (TimeoutException e) {
-                parent.getLogger().sendToLog("**WARNING:** `" + filter.getRegex() + "` timed out during processing");
+                future = parent.getRegexMatchPool().submit(callable);
+            } catch (RejectedExecutionException e) {
+                reportUnchecked(candidates, start, "the regex matching pool is saturated");
+                break;
+            }
+
+            int culprit;
+
+            try {
+                culprit = awaitFilters(future, callable);
+
+                if (culprit < 0) {
+                    addNew(matches, future.get());
+                    break;
+                }
+
                 if (!future.cancel(true)) {
                     parent.getLogger().sendToLog("**WARNING:** Attempt to cancel pending regex operations DID NOT succeed.");
                 }
 
-                continue;
-            } catch (Exception e) {
-                parent.getLogger().sendToLog("An error occurred while executing filter `" + filter.getRegex() + "`: " + e.toString());
-                continue;
+                MessageFilter filter = filterSet.getFilters().get(culprit);
+                filterSet.getStatistics(culprit).recordTimeout();
+                parent.filterTimedOut(filter);
+                parent.getLogger().sendToLog("**WARNING:** `" + filter.getSpec() + "` timed out during processing");
+            } catch (CancellationException e) {
+                // Discarded by the pool's rejection policy before it could run
+                reportUnchecked(candidates, start, "the regex matching pool is saturated");
+                break;
+            } catch (TimeoutException e) {
+                // The timeout was spent waiting in the pool's queue, so no filter is to blame
+                future.cancel(true);
+                reportUnchecked(candidates, start, "no regex matching thread became free in time");
+                break;
+            } catch (InterruptedException e) {
+                // We're being shut down, which is no fault of the filter being checked
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                reportUnchecked(candidates, start, "the filter thread was interrupted");
+                break;
+            } catch (ExecutionException e) {
+                culprit = callable.getPosition();
+                MessageFilter filter = filterSet.getFilters().get(culprit);
+                filterSet.getStatistics(culprit).recordTimeout();
+                parent.filterTimedOut(filter);
+                parent.getLogger().sendToLog("An error occurred while executing filter `" + filter.getSpec() + "`: " +
+                    e.getCause().toString());
             }
 
-            if (response) {
-                EmbedBuilder embedBuilder = new EmbedBuilder();
-
-                // We have a match!!
-                embedBuilder.setAuthor(Miscellaneous.qualifyName(member), null, member.getUser().getAvatarUrl());
-                embedBuilder.setDescription('`' + filter.getRegex() + '`');
-                embedBuilder.setFooter(getClass().getSimpleName() + " | " + Miscellaneous.unixEpochToRfc1123DateTimeString(Instant.now().getEpochSecond()), null);
-                embedBuilder.addField("Offending message", message, false);
-                embedBuilder.addField("Tripped filter comment", filter.getComment(), false);
-                embedBuilder.addField("Tripped filter action", filter.getAction().toString(), false);
-
-                Member filterCreator = event.getGuild().getMemberById(filter.getCreatorUid());
-                embedBuilder.addField("Tripped filter added by", filterCreator == null ? "(unknown)" : filterCreator.getEffectiveName(), false);
-
-                embedBuilder.addField("Tripped filter added at", Miscellaneous.unixEpochToRfc1123DateTimeString(filter.getCreationTime()), false);
-
-                // First, check if the match is against someone who has permission to change filters - if so, they're considered exempt.  Always log only.
-                if (parent.getAcl().hasPermission(member, FilterCommandHandler.PERM_FILTER)) {
-                    embedBuilder.setTitle("User tripped a filter but is exempt");
-                    embedBuilder.addField("Action taken", "Logged only - user who tripped filter is authorized to modify them, so they are considered exempt.", false);
-                    embedBuilder.setColor(new Color(0xAAAAAA));
-                } else {
-                    embedBuilder.setTitle("User tripped a message filter!");
-
-                    switch (filter.getAction()) {
-                        case LOG_ONLY:
-                            embedBuilder.addField("Action taken", "Logged only", false);
-                            break;
-                        case WARN_USER:
-                            performActionsWithErrorHandling(embedBuilder, "User warned, message not deleted",
-                                () -> actionSendPrivateMessage(
-                                "Hello.  This message is to inform you that a message you sent to the " + event.getGuild().getName() + " server tripped " +
-                                "an automated message filter.  No action has been taken against you and your message has not been deleted; however, the moderators have been " +
-                                "notified of this incident.\n" +
-                                "Offending message: `" + message + "`\n" +
-                                "Filter comment: " + filter.getComment()));
-                            break;
-                        case DELETE_MESSAGE_SILENT:
-                            performActionsWithErrorHandling(embedBuilder, "Message deleted without notifying user",
-                                this::actionDeleteMessage);
-                            break;
-                        case DELETE_MESSAGE_AND_WARN:
-                            performActionsWithErrorHandling(embedBuilder, "Message deleted and user notified",
-                                this::actionDeleteMessage,
-                                () -> actionSendPrivateMessage(
-                                    "Hello.  This message is to inform you that a message you sent to the " + event.getGuild().getName() + " server tripped " +
-                                    "an automated message filter.  The message has been automatically deleted and the moderators have been notified of this incident.\n" +
-                                    "Offending message: `" + message + "`\n" +
-                                    "Filter comment: " + filter.getComment()));
-                            break;
-                        case DELETE_MESSAGE_AND_KICK:
-                            performActionsWithErrorHandling(embedBuilder, "Message deleted and sending user kicked with direct notification",
-                                this::actionDeleteMessage,
-                                () -> actionSendPrivateMessage(
-                                    "Hello.  This message is to inform you that a message you sent to the " + event.getGuild().getName() + " server tripped " +
-                                    "an automated message filter.  The message has been automatically deleted and you have been automatically kicked from the server.\n" +
-                                    "Offending message: `" + message + "`\n" +
-                                    "Filter comment: " + filter.getComment() + '\n' +
-                                    "Please take a moment to consider the comment before attempting to rejoin the server.  Remember that continued violation of server rules " +
-                                    "may result in a ban."),
-                                this::actionKickUser);
-                            break;
-                        case DELETE_MESSAGE_AND_CRYO:
-                            performActionsWithErrorHandling(embedBuilder, "Message deleted and user cryo'd with direct notification",
-                                this::actionDeleteMessage,
-                                () -> actionSendPrivateMessage(
-                                    "Hello.  This message is to inform you that a message you sent to the " + event.getGuild().getName() + " server tripped " +
-                                    "an automated message filter.  The message has been automatically deleted and you have been automatically quieted - though you may remain " +
-                                    "on the server and continue to *read* messages, you may not participate or send messages for the time being.\n" +
-                                    "Offending message: `" + message + "`\n" +
-                                    "Filter comment: " + filter.getComment() + '\n' +
-                                    "Please contact a server moderator directly if you have any questions, or if you would like to enquire about when your quiet will be removed."),
-                                this::actionCryoUser);
-                            break;
-                        case DELETE_MESSAGE_AND_BAN:
-                            performActionsWithErrorHandling(embedBuilder, "Message deleted and user banned with direct notification",
-                                this::actionDeleteMessage,
-                                () -> actionSendPrivateMessage(
-                                    "Hello.  This message is to inform you that a message you sent to the " + event.getGuild().getName() + " server tripped " +
-                                    "an automated message filter.  The message has been automatically deleted and you have been automatically banned from the server for violation " +
-                                    "of the server rules.\n" +
-                                    "Offending message: `" + message + "`\n" +
-                                    "Filter comment: " + filter.getComment()),
-                                this::actionBanUser);
-                            break;
-                    }
-
-                    embedBuilder.setColor(new Color(0xCC0000));
+            complete = false;
+            // The callable may have got a little further before noticing it was cancelled, so some of the filters
+            // after the culprit may be checked twice
+            addNew(matches, callable.getMatches());
+            start = culprit + 1;
+
+            if (matches.stream().anyMatch(filterSet::isFinal)) {
+                break;
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Waits for the callable to finish, allowing each filter up to {@link #FILTER_TIMEOUT_NANOS} from when it started.
+     *
+     * @return -1 if the callable finished, or the index of the filter that ran for too long
+     * @throws TimeoutException If the callable didn't start running within the timeout
+     */
+    private static int awaitFilters(Future<List<MessageFilter>> future, FilterSetMatchCallable callable)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + FILTER_TIMEOUT_NANOS;
+
+        while (true) {
+            try {
+                future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                return -1;
+            } catch (TimeoutException e) {
+                if (!callable.isStarted()) {
+                    throw e;
+                } else if (future.isDone()) {
+                    // Finished just as we gave up waiting, so the next get() returns straight away
+                    continue;
                 }
 
-                parent.getLogger().sendToLog(embedBuilder.build(), member);
+                // The position must be read first; see getPositionStartTime()
+                int position = callable.getPosition();
+                long positionStartTime = callable.getPositionStartTime();
+
+                if (System.nanoTime() - positionStartTime >= FILTER_TIMEOUT_NANOS) {
+                    return position;
+                }
+
+                deadline = positionStartTime + FILTER_TIMEOUT_NANOS;
             }
         }
     }
 
-    private String actionSendPrivateMessage(String message) {
-        try {
-            PrivateChannel pc = member.getUser().openPrivateChannel().complete();
-            pc.sendMessage(message).complete();
-        } catch (Exception e) {
-            return "Failed to send private message: " + e.toString();
+    private static void addNew(List<MessageFilter> matches, List<MessageFilter> found) {
+        for (MessageFilter filter : found) {
+            if (!matches.contains(filter)) {
+                matches.add(filter);
+            }
         }
+    }
 
-        return null;
+    private void reportUnchecked(BitSet candidates, int start, String reason) {
+        complete = false;
+        int unchecked = candidates.get(start, Math.max(start, candidates.length())).cardinality();
+
+        parent.getLogger().sendToLog("**WARNING:** " + unchecked + " filter(s) were not checked against a message from " +
+            Miscellaneous.qualifyName(member) + ", as " + reason);
     }
 
-    private String actionDeleteMessage() {
-        try {
-            event.getMessage().delete().reason("Automatic message deletion due to message filter violation").complete();
-        } catch (Exception e) {
-            return "Failed to delete message: " + e.toString();
+    /**
+     * @param filter The filter that matched
+     * @param supersededBy If not null, a more severe filter that also matched, in which case this match is only logged
+     */
+    private void handleMatch(MessageFilter filter, MessageFilter supersededBy) {
+        // First, check if the match is against someone who has permission to change filters - if so, they're considered exempt.  Always log only.
+        boolean exempt = parent.getAcl().hasPermission(member, FilterCommandHandler.PERM_FILTER);
+
+        // Repeat offenders may have a more severe action taken against them than the filter's own
+        FilterAction action = filter.getAction();
+        int strikes = 0;
+
+        if (!exempt && supersededBy == null && action != FilterAction.LOG_ONLY && parent.getStrikeLedger() != null) {
+            strikes = parent.getStrikeLedger().recordStrike(member.getIdLong(), System.currentTimeMillis());
+            action = parent.getSettings().escalate(action, strikes);
         }
 
-        return null;
-    }
+        // Start acting on the message before doing anything else, since during a raid every moment it stays up counts
+        CompletableFuture<List<String>> failures = exempt || supersededBy != null ? null : performActions(filter, action);
 
-    private String actionKickUser() {
-        try {
-            event.getGuild().kick(member).reason("Automatic kick due to message filter violation").complete();
-        } catch (Exception e) {
-            return "Failed to kick user: " + e.toString();
+        EmbedBuilder embedBuilder = new EmbedBuilder();
+
+        // We have a match!!
+        embedBuilder.setAuthor(Miscellaneous.qualifyName(member), null, member.getUser().getAvatarUrl());
+        embedBuilder.setDescription('`' + filter.getSpec() + '`');
+        embedBuilder.setFooter(getClass().getSimpleName() + " | " + Miscellaneous.unixEpochToRfc1123DateTimeString(Instant.now().getEpochSecond()), null);
+        embedBuilder.addField("Offending message", message, false);
+        embedBuilder.addField("Tripped filter comment", filter.getComment(), false);
+        embedBuilder.addField("Tripped filter action", filter.getAction().toString(), false);
+
+        if (action != filter.getAction()) {
+            embedBuilder.addField("Escalated to", action + " - this is the user's strike " + strikes + " within the last " +
+                parent.getSettings().getStrikeWindowSeconds() + " seconds", false);
         }
 
-        return null;
-    }
+        Member filterCreator = guild.getMemberById(filter.getCreatorUid());
+        embedBuilder.addField("Tripped filter added by", filterCreator == null ? "(unknown)" : filterCreator.getEffectiveName(), false);
 
-    private String actionCryoUser() {
-        try {
-            Role cryoRole = event.getGuild().getRoleById(parent.getCryoHandler().getCryoRoleId());
-            if (cryoRole == null) {
-                throw new IllegalStateException("Cryo role has not been set");
-            }
+        embedBuilder.addField("Tripped filter added at", Miscellaneous.unixEpochToRfc1123DateTimeString(filter.getCreationTime()), false);
 
-            event.getGuild()
-                .addRoleToMember(member, cryoRole)
-                .reason("Automatic cryo due to message filter violation")
-                .complete();
-        } catch (Exception e) {
-            return "Failed to cryo user: " + e.toString();
+        if (exempt) {
+            embedBuilder.setTitle("User tripped a filter but is exempt");
+            embedBuilder.addField("Action taken", "Logged only - user who tripped filter is authorized to modify them, so they are considered exempt.", false);
+            embedBuilder.setColor(new Color(0xAAAAAA));
+
+            parent.getLogger().sendToLog(embedBuilder.build(), member);
+            return;
         }
 
-        return null;
+        embedBuilder.setTitle(edited ? "User tripped a message filter by editing a message!" : "User tripped a message filter!");
+        embedBuilder.setColor(new Color(0xCC0000));
+
+        if (supersededBy != null) {
+            embedBuilder.addField("Action taken", "Logged only - the message also tripped the more severe filter `" +
+                supersededBy.getSpec() + "`, which has been acted on instead.", false);
+
+            parent.getLogger().sendToLog(embedBuilder.build(), member);
+            return;
+        }
+
+        // Log once every action has either succeeded or failed
+        FilterAction actionTaken = action;
+        failures.thenAccept(failed -> {
+            if (failed.isEmpty()) {
+                embedBuilder.addField("Action taken", describeAction(actionTaken), false);
+            } else {
+                StringBuilder sb = new StringBuilder("One or more actions **failed**:");
+                failed.forEach(s -> sb.append("\n* ").append(s));
+                embedBuilder.addField("Action taken", sb.toString(), false);
+            }
+
+            parent.getLogger().sendToLog(embedBuilder.build(), member);
+        });
     }
 
-    private String actionBanUser() {
-        try {
-            event.getGuild().ban(member, 0, "Automatic ban due to message filter violation")
-                    .reason("Automatic ban due to message filter violation")
-                    .complete();
-        } catch (Exception e) {
-            return "Failed to ban user: " + e.toString();
+    /**
+     * Starts the actions required by the filter.  The message is deleted straight away; the user is sent a DM at the
+     * same time, and is only kicked or banned once the DM has been sent (or failed), as we can't DM users after
+     * removing them from the server.  Cryo doesn't stop us DMing the user, so happens in parallel.
+     *
+     * @param filter The filter that was tripped
+     * @param action The action to take, which may be more severe than the filter's own
+     * @return A future completing, once every action has finished, with a description of each action that failed
+     */
+    private CompletableFuture<List<String>> performActions(MessageFilter filter, FilterAction action) {
+        CompletableFuture<String> delete;
+        CompletableFuture<String> privateMessage;
+
+        switch (action) {
+            case WARN_USER:
+                return collectFailures(actionSendPrivateMessage(
+                    "Hello.  This message is to inform you that a message you sent to the " + guild.getName() + " server tripped " +
+                    "an automated message filter.  No action has been taken against you and your message has not been deleted; however, the moderators have been " +
+                    "notified of this incident.\n" +
+                    "Offending message: `" + message + "`\n" +
+                    "Filter comment: " + filter.getComment()));
+            case DELETE_MESSAGE_SILENT:
+                return collectFailures(actionDeleteMessage());
+            case DELETE_MESSAGE_AND_WARN:
+                delete = actionDeleteMessage();
+                privateMessage = actionSendPrivateMessage(
+                    "Hello.  This message is to inform you that a message you sent to the " + guild.getName() + " server tripped " +
+                    "an automated message filter.  The message has been automatically deleted and the moderators have been notified of this incident.\n" +
+                    "Offending message: `" + message + "`\n" +
+                    "Filter comment: " + filter.getComment());
+                return collectFailures(delete, privateMessage);
+            case DELETE_MESSAGE_AND_KICK:
+                delete = actionDeleteMessage();
+                privateMessage = actionSendPrivateMessage(
+                    "Hello.  This message is to inform you that a message you sent to the " + guild.getName() + " server tripped " +
+                    "an automated message filter.  The message has been automatically deleted and you have been automatically kicked from the server.\n" +
+                    "Offending message: `" + message + "`\n" +
+                    "Filter comment: " + filter.getComment() + '\n' +
+                    "Please take a moment to consider the comment before attempting to rejoin the server.  Remember that continued violation of server rules " +
+                    "may result in a ban.");
+                return collectFailures(delete, privateMessage, privateMessage.thenCompose(ignored -> actionKickUser()));
+            case DELETE_MESSAGE_AND_CRYO:
+                delete = actionDeleteMessage();
+                privateMessage = actionSendPrivateMessage(
+                    "Hello.  This message is to inform you that a message you sent to the " + guild.getName() + " server tripped " +
+                    "an automated message filter.  The message has been automatically deleted and you have been automatically quieted - though you may remain " +
+                    "on the server and continue to *read* messages, you may not participate or send messages for the time being.\n" +
+                    "Offending message: `" + message + "`\n" +
+                    "Filter comment: " + filter.getComment() + '\n' +
+                    "Please contact a server moderator directly if you have any questions, or if you would like to enquire about when your quiet will be removed.");
+                return collectFailures(delete, privateMessage, actionCryoUser());
+            case DELETE_MESSAGE_AND_BAN:
+                delete = actionDeleteMessage();
+                privateMessage = actionSendPrivateMessage(
+                    "Hello.  This message is to inform you that a message you sent to the " + guild.getName() + " server tripped " +
+                    "an automated message filter.  The message has been automatically deleted and you have been automatically banned from the server for violation " +
+                    "of the server rules.\n" +
+                    "Offending message: `" + message + "`\n" +
+                    "Filter comment: " + filter.getComment());
+                return collectFailures(delete, privateMessage, privateMessage.thenCompose(ignored -> actionBanUser()));
+            case LOG_ONLY:
+            default:
+                return CompletableFuture.completedFuture(Collections.emptyList());
         }
+    }
 
-        return null;
+    private static String describeAction(FilterAction action) {
+        switch (action) {
+            case WARN_USER:
+                return "User warned, message not deleted";
+            case DELETE_MESSAGE_SILENT:
+                return "Message deleted without notifying user";
+            case DELETE_MESSAGE_AND_WARN:
+                return "Message deleted and user notified";
+            case DELETE_MESSAGE_AND_KICK:
+                return "Message deleted and sending user kicked with direct notification";
+            case DELETE_MESSAGE_AND_CRYO:
+                return "Message deleted and user cryo'd with direct notification";
+            case DELETE_MESSAGE_AND_BAN:
+                return "Message deleted and user banned with direct notification";
+            case LOG_ONLY:
+            default:
+                return "Logged only";
+        }
     }
 
-    @SafeVarargs
-    private static void performActionsWithErrorHandling(EmbedBuilder embedBuilder, String outputIfSuccess, Supplier<String>... actions) {
-        List<String> retval = new ArrayList<>();
+    private CompletableFuture<String> actionSendPrivateMessage(String message) {
+        return submitAction("Failed to send private message: ",
+            () -> member.getUser().openPrivateChannel().flatMap(pc -> pc.sendMessage(message)));
+    }
 
-        for (Supplier<String> action : actions) {
-            String output = action.get();
+    private CompletableFuture<String> actionDeleteMessage() {
+        return submitAction("Failed to delete message: ",
+            () -> offendingMessage.delete().reason("Automatic message deletion due to message filter violation"));
+    }
+
+    private CompletableFuture<String> actionKickUser() {
+        return submitAction("Failed to kick user: ",
+            () -> guild.kick(member).reason("Automatic kick due to message filter violation"));
+    }
 
-            if (output != null) {
-                retval.add(output);
+    private CompletableFuture<String> actionCryoUser() {
+        return submitAction("Failed to cryo user: ", () -> {
+            Role cryoRole = guild.getRoleById(parent.getCryoHandler().getCryoRoleId());
+            if (cryoRole == null) {
+                throw new IllegalStateException("Cryo role has not been set");
             }
-        }
 
-        if (!retval.isEmpty()) {
-            StringBuilder sb = new StringBuilder("One or more actions **failed**:");
+            return guild
+                .addRoleToMember(member, cryoRole)
+                .reason("Automatic cryo due to message filter violation");
+        });
+    }
 
-            //noinspection SimplifyStreamApiCallChains
-            retval.stream()
-                .forEachOrdered(s -> sb.append("\n* ").append(s));
+    private CompletableFuture<String> actionBanUser() {
+        return submitAction("Failed to ban user: ",
+            () -> guild.ban(member, 0, "Automatic ban due to message filter violation")
+                .reason("Automatic ban due to message filter violation"));
+    }
 
-            embedBuilder.addField("Action taken", sb.toString(), false);
-        } else {
-            embedBuilder.addField("Action taken", outputIfSuccess, false);
+    /**
+     * Submits a REST action without waiting for it.
+     *
+     * @param failurePrefix Prepended to the exception if the action fails
+     * @param action Creates the action to submit; may throw if the action can't be performed at all (e.g., because
+     *               we lack the permissions)
+     * @return A future that completes with null if the action succeeded, or with a description of the failure if it
+     * didn't; it never completes exceptionally
+     */
+    private static CompletableFuture<String> submitAction(String failurePrefix, Supplier<RestAction<?>> action) {
+        try {
+            return action.get().submit().handle((result, e) -> {
+                if (e == null) {
+                    return null;
+                }
+
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                return failurePrefix + cause.toString();
+            });
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(failurePrefix + e.toString());
         }
     }
+
+    @SafeVarargs
+    private static CompletableFuture<List<String>> collectFailures(CompletableFuture<String>... actions) {
+        return CompletableFuture.allOf(actions).thenApply(ignored -> Arrays.stream(actions)
+            .map(CompletableFuture::join)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList()));
+    }
 }
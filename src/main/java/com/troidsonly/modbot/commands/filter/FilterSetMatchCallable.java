@@ -0,0 +1,121 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+import org.lizardirc.beancounter.utils.InterruptibleCharSequence;
+
+/**
+ * Runs a whole {@link CompiledFilterSet} against a message.  Progress is tracked so that the caller can time each
+ * filter separately, and, should the callable be cancelled after a filter times out, tell which filter was running and
+ * which filters had already matched.
+ */
+class FilterSetMatchCallable implements Callable<List<MessageFilter>>, CompiledFilterSet.MatchCallback {
+    private final CompiledFilterSet filterSet;
+    private final BitSet candidates;
+    private final int start;
+    private final InterruptibleCharSequence subject;
+    private final InterruptibleCharSequence normalizedSubject;
+    private final List<MessageFilter> matches = new ArrayList<>();
+
+    private volatile int position;
+    private volatile long positionStartTime;
+    private volatile boolean started = false;
+
+    public FilterSetMatchCallable(CompiledFilterSet filterSet, BitSet candidates, int start, MessageText text) {
+        this.filterSet = Objects.requireNonNull(filterSet);
+        this.candidates = Objects.requireNonNull(candidates);
+        this.start = start;
+        subject = new InterruptibleCharSequence(text.getRaw());
+        normalizedSubject = filterSet.usesNormalizedText() ? new InterruptibleCharSequence(text.getNormalized()) : null;
+        position = start;
+    }
+
+    @Override
+    public List<MessageFilter> call() {
+        positionStartTime = System.nanoTime();
+        started = true;
+        filterSet.match(subject, normalizedSubject, candidates, start, this);
+        return getMatches();
+    }
+
+    @Override
+    public void matched(MessageFilter filter) {
+        synchronized (matches) {
+            matches.add(filter);
+        }
+    }
+
+    @Override
+    public void checking(int index) {
+        // Written before the position, so that a reader who sees the new position also sees when it was reached
+        positionStartTime = System.nanoTime();
+        position = index;
+    }
+
+    /**
+     * @return Whether a thread has started running this callable, as opposed to it still being queued
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * @return The index within the filter set of the filter most recently started
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which the filter most recently started began to be checked.  If read
+     * after {@link #getPosition()}, this is never earlier than when that filter started.
+     */
+    public long getPositionStartTime() {
+        return positionStartTime;
+    }
+
+    /**
+     * @return A copy of the filters that have matched so far
+     */
+    public List<MessageFilter> getMatches() {
+        synchronized (matches) {
+            return new ArrayList<>(matches);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Startup settings for the message filter, read from the bot's configuration file.
+ */
+public class FilterSettings {
+    private final long matchStepBudget;
+    private final long costThreshold;
+    private final long verdictCacheSize;
+    private final long verdictCacheSeconds;
+    private final TerminalMatchPolicy terminalMatchPolicy;
+    private final RegexEngine regexEngine;
+    private final int quarantineThreshold;
+    private final long quarantineWindowSeconds;
+    private final NavigableMap<Integer, FilterAction> strikeEscalation;
+    private final long strikeWindowSeconds;
+
+    public FilterSettings(long matchStepBudget, long costThreshold, long verdictCacheSize, long verdictCacheSeconds,
+                          TerminalMatchPolicy terminalMatchPolicy, RegexEngine regexEngine, int quarantineThreshold,
+                          long quarantineWindowSeconds, NavigableMap<Integer, FilterAction> strikeEscalation,
+                          long strikeWindowSeconds) {
+        if (matchStepBudget < 0L) {
+            throw new IllegalArgumentException("matchStepBudget must be 0 or greater");
+        }
+
+        if (costThreshold <= 0L) {
+            throw new IllegalArgumentException("costThreshold must be greater than 0");
+        }
+
+        if (verdictCacheSize < 0L) {
+            throw new IllegalArgumentException("verdictCacheSize must be 0 or greater");
+        }
+
+        if (verdictCacheSeconds <= 0L) {
+            throw new IllegalArgumentException("verdictCacheSeconds must be greater than 0");
+        }
+
+        if (quarantineThreshold < 0) {
+            throw new IllegalArgumentException("quarantineThreshold must be 0 or greater");
+        }
+
+        if (quarantineWindowSeconds <= 0L) {
+            throw new IllegalArgumentException("quarantineWindowSeconds must be greater than 0");
+        }
+
+        if (strikeEscalation.keySet().stream().anyMatch(strikes -> strikes <= 0)) {
+            throw new IllegalArgumentException("strikeEscalation thresholds must be greater than 0");
+        }
+
+        if (strikeWindowSeconds <= 0L) {
+            throw new IllegalArgumentException("strikeWindowSeconds must be greater than 0");
+        }
+
+        this.matchStepBudget = matchStepBudget;
+        this.costThreshold = costThreshold;
+        this.verdictCacheSize = verdictCacheSize;
+        this.verdictCacheSeconds = verdictCacheSeconds;
+        this.terminalMatchPolicy = Objects.requireNonNull(terminalMatchPolicy);
+        this.regexEngine = Objects.requireNonNull(regexEngine);
+        this.quarantineThreshold = quarantineThreshold;
+        this.quarantineWindowSeconds = quarantineWindowSeconds;
+        this.strikeEscalation = Collections.unmodifiableNavigableMap(new TreeMap<>(strikeEscalation));
+        this.strikeWindowSeconds = strikeWindowSeconds;
+    }
+
+    public static FilterSettings fromProperties(Properties properties) {
+        String terminalMatchPolicy = properties.getProperty("filterTerminalMatchPolicy", TerminalMatchPolicy.SKIP.toString());
+
+        if (!TerminalMatchPolicy.getFromStringMap().containsKey(terminalMatchPolicy)) {
+            throw new IllegalArgumentException("filterTerminalMatchPolicy must be one of: " +
+                String.join(", ", TerminalMatchPolicy.getFromStringMap().keySet()));
+        }
+
+        String regexEngine = properties.getProperty("filterRegexEngine", RegexEngine.JAVA.toString());
+
+        if (!RegexEngine.getFromStringMap().containsKey(regexEngine)) {
+            throw new IllegalArgumentException("filterRegexEngine must be one of: " +
+                String.join(", ", RegexEngine.getFromStringMap().keySet()));
+        }
+
+        return new FilterSettings(
+            Long.parseLong(properties.getProperty("filterMatchStepBudget", "10000000")),
+            Long.parseLong(properties.getProperty("filterCostThreshold", "5000000")),
+            Long.parseLong(properties.getProperty("filterVerdictCacheSize", "10000")),
+            Long.parseLong(properties.getProperty("filterVerdictCacheSeconds", "60")),
+            TerminalMatchPolicy.getFromStringMap().get(terminalMatchPolicy),
+            RegexEngine.getFromStringMap().get(regexEngine),
+            Integer.parseInt(properties.getProperty("filterQuarantineThreshold", "5")),
+            Long.parseLong(properties.getProperty("filterQuarantineWindowSeconds", "600")),
+            parseStrikeEscalation(properties.getProperty("filterStrikeEscalation", "")),
+            Long.parseLong(properties.getProperty("filterStrikeWindowSeconds", "3600"))
+        );
+    }
+
+    /**
+     * @param spec A comma-separated list of {@code strikes:action} pairs, such as {@code 3:delete-and-cryo}
+     */
+    private static NavigableMap<Integer, FilterAction> parseStrikeEscalation(String spec) {
+        NavigableMap<Integer, FilterAction> retval = new TreeMap<>();
+
+        for (String rule : spec.split(",")) {
+            rule = rule.trim();
+
+            if (rule.isEmpty()) {
+                continue;
+            }
+
+            String[] parts = rule.split(":", 2);
+            FilterAction action = parts.length == 2 ? FilterAction.getFromStringMap().get(parts[1].trim()) : null;
+
+            if (action == null) {
+                throw new IllegalArgumentException("filterStrikeEscalation rules must be of the form strikes:action, where action is one of: " +
+                    String.join(", ", FilterAction.getFromStringMap().keySet()));
+            }
+
+            retval.put(Integer.parseInt(parts[0].trim()), action);
+        }
+
+        return retval;
+    }
+
+    /**
+     * @return The number of characters each filter may read from a message before its match is abandoned, or 0 if
+     * matches should instead be run on the executor and subjected to a timeout
+     */
+    public long getMatchStepBudget() {
+        return matchStepBudget;
+    }
+
+    /**
+     * @return The most steps a new filter may take on any benchmark input before it is refused without an override
+     */
+    public long getCostThreshold() {
+        return costThreshold;
+    }
+
+    /**
+     * @return The most message texts to remember filter verdicts for, or 0 if verdicts shouldn't be cached
+     */
+    public long getVerdictCacheSize() {
+        return verdictCacheSize;
+    }
+
+    /**
+     * @return How long a cached verdict remains valid for, in seconds
+     */
+    public long getVerdictCacheSeconds() {
+        return verdictCacheSeconds;
+    }
+
+    public TerminalMatchPolicy getTerminalMatchPolicy() {
+        return terminalMatchPolicy;
+    }
+
+    public RegexEngine getRegexEngine() {
+        return regexEngine;
+    }
+
+    /**
+     * @return How many times a filter may time out within the quarantine window before it is quarantined, or 0 if
+     * filters should never be quarantined
+     */
+    public int getQuarantineThreshold() {
+        return quarantineThreshold;
+    }
+
+    public long getQuarantineWindowSeconds() {
+        return quarantineWindowSeconds;
+    }
+
+    /**
+     * @return Whether repeat offenders should have their strikes tracked and be dealt with more severely
+     */
+    public boolean isStrikeEscalationEnabled() {
+        return !strikeEscalation.isEmpty();
+    }
+
+    /**
+     * @return The highest number of strikes that escalates the action taken, or 0 if strike escalation is disabled
+     */
+    public int getMaxStrikeThreshold() {
+        return strikeEscalation.isEmpty() ? 0 : strikeEscalation.lastKey();
+    }
+
+    /**
+     * @return How long, in seconds, a strike counts towards escalation for
+     */
+    public long getStrikeWindowSeconds() {
+        return strikeWindowSeconds;
+    }
+
+    /**
+     * @param action The action of the filter a user tripped
+     * @param strikes How many strikes the user has, including this one
+     * @return The action to take instead, which is never less severe than the filter's own
+     */
+    FilterAction escalate(FilterAction action, int strikes) {
+        Map.Entry<Integer, FilterAction> rule = strikeEscalation.floorEntry(strikes);
+
+        if (rule == null || rule.getValue().compareTo(action) <= 0) {
+            return action;
+        }
+
+        return rule.getValue();
+    }
+
+    /**
+     * @return Whether the given filter will be run on the linear-time engine (see {@link RegexFilter#getLinearPattern()})
+     */
+    boolean usesLinearEngine(RegexFilter filter) {
+        return (regexEngine == RegexEngine.LINEAR || filter.isLinear()) && filter.getLinearPattern() != null;
+    }
+
+    /**
+     * What to do with the remaining filters once a message has tripped a filter with a terminal action (see
+     * {@link FilterAction#isTerminal()}).  Filters are checked in order of decreasing severity, so the remaining filters
+     * are never more severe than the one that matched.
+     */
+    public enum TerminalMatchPolicy {
+        SKIP("skip"), // Don't check them at all
+        LOG("log"); // Check them, and log any matches, but don't act on them
+
+        private static final Map<String, TerminalMatchPolicy> fromStringMap = new HashMap<>();
+
+        private final String stringRepresentation;
+
+        static {
+            for (TerminalMatchPolicy value : TerminalMatchPolicy.values()) {
+                fromStringMap.put(value.stringRepresentation, value);
+            }
+        }
+
+        TerminalMatchPolicy(String stringRepresentation) {
+            this.stringRepresentation = stringRepresentation;
+        }
+
+        @Override
+        public String toString() {
+            return stringRepresentation;
+        }
+
+        public static Map<String, TerminalMatchPolicy> getFromStringMap() {
+            return new HashMap<>(fromStringMap);
+        }
+    }
+
+    /**
+     * Which regex engine filters are run on by default.  Filters with the {@code l} option always use the linear-time
+     * engine if they can.
+     */
+    public enum RegexEngine {
+        JAVA("java"), // java.util.regex, which supports everything but can backtrack catastrophically
+        LINEAR("linear"); // The linear-time engine, for every filter it supports
+
+        private static final Map<String, RegexEngine> fromStringMap = new HashMap<>();
+
+        private final String stringRepresentation;
+
+        static {
+            for (RegexEngine value : RegexEngine.values()) {
+                fromStringMap.put(value.stringRepresentation, value);
+            }
+        }
+
+        RegexEngine(String stringRepresentation) {
+            this.stringRepresentation = stringRepresentation;
+        }
+
+        @Override
+        public String toString() {
+            return stringRepresentation;
+        }
+
+        public static Map<String, RegexEngine> getFromStringMap() {
+            return new HashMap<>(fromStringMap);
+        }
+    }
+}
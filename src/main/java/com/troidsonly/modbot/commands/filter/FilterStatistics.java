@@ -0,0 +1,183 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of how a single filter has performed: how often it has been run, matched and timed out, and how long
+ * it took each time it ran to completion.  Matches include those served from the verdict cache without running the
+ * filter, so a filter can have more matches than runs.  Every counter is a {@link LongAdder}, so the many threads
+ * checking messages can record results concurrently without contending with each other; readers get a close-enough
+ * snapshot.
+ * <p>
+ * Latencies are kept as a histogram with power-of-two buckets, where bucket {@code i} counts runs taking from
+ * {@code 2^i} up to (but not including) {@code 2^(i+1)} nanoseconds.
+ */
+class FilterStatistics {
+    static final int HISTOGRAM_BUCKETS = 40; // The last bucket, from about nine minutes, also counts anything longer
+
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+    FilterStatistics() {
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = new LongAdder();
+        }
+    }
+
+    static FilterStatistics fromRecord(Record record) {
+        FilterStatistics retval = new FilterStatistics();
+
+        retval.evaluations.add(record.evaluations);
+        retval.matches.add(record.matches);
+        retval.timeouts.add(record.timeouts);
+        retval.totalNanos.add(record.totalNanos);
+
+        if (record.histogram != null) {
+            for (int i = 0; i < Math.min(record.histogram.length, HISTOGRAM_BUCKETS); i++) {
+                retval.histogram[i].add(record.histogram[i]);
+            }
+        }
+
+        return retval;
+    }
+
+    Record toRecord() {
+        Record retval = new Record();
+
+        retval.evaluations = evaluations.sum();
+        retval.matches = matches.sum();
+        retval.timeouts = timeouts.sum();
+        retval.totalNanos = totalNanos.sum();
+        retval.histogram = new long[HISTOGRAM_BUCKETS];
+
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            retval.histogram[i] = histogram[i].sum();
+        }
+
+        return retval;
+    }
+
+    void recordEvaluation(long nanos, boolean matched) {
+        evaluations.increment();
+        totalNanos.add(nanos);
+        histogram[bucketOf(nanos)].increment();
+
+        if (matched) {
+            matches.increment();
+        }
+    }
+
+    /**
+     * Records a match found in the verdict cache (see {@link VerdictCache}), for which the filter wasn't actually run.
+     */
+    void recordCachedMatch() {
+        matches.increment();
+    }
+
+    /**
+     * Records a run of the filter that was abandoned, whether because it timed out, ran out of step budget, or failed.
+     */
+    void recordTimeout() {
+        evaluations.increment();
+        timeouts.increment();
+    }
+
+    long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    long getMatches() {
+        return matches.sum();
+    }
+
+    long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return The mean time taken by runs that completed, in nanoseconds, or 0 if there haven't been any
+     */
+    long getMeanNanos() {
+        long completed = evaluations.sum() - timeouts.sum();
+        return completed <= 0L ? 0L : totalNanos.sum() / completed;
+    }
+
+    /**
+     * @param quantile Between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return An upper bound on the time taken by the given fraction of completed runs, in nanoseconds, or 0 if there
+     * haven't been any
+     */
+    long getQuantileNanos(double quantile) {
+        long[] counts = new long[HISTOGRAM_BUCKETS];
+        long total = 0L;
+
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            counts[i] = histogram[i].sum();
+            total += counts[i];
+        }
+
+        long target = (long) Math.ceil(total * quantile);
+        long seen = 0L;
+
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            seen += counts[i];
+
+            if (seen >= target && seen > 0L) {
+                return 1L << (i + 1);
+            }
+        }
+
+        return 0L;
+    }
+
+    private static int bucketOf(long nanos) {
+        int bucket = 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1L));
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    /**
+     * The persisted form of a filter's statistics.
+     */
+    static class Record {
+        private long evaluations;
+        private long matches;
+        private long timeouts;
+        private long totalNanos;
+        private long[] histogram;
+    }
+}
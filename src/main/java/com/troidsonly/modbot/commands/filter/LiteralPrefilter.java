@@ -0,0 +1,175 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Narrows down which filters in a {@link CompiledFilterSet} could possibly match a message before any regex is run.
+ * Most filters can only match text containing some fixed string (for instance, {@code discord\.gg/\w+} can't match
+ * unless the message contains "discord.gg/"), so each filter's required literals are indexed in an
+ * {@link AhoCorasickAutomaton} and every message is scanned once for all of them.  Only filters whose required literal
+ * was found, plus those for which no required literal could be worked out, then need their regex run.
+ * <p>
+ * Case-insensitive filters are indexed separately, with case folded on both sides.  Extraction is conservative: it
+ * never reports a literal that a matching message might not contain, and gives up on any regex it isn't sure about.
+ */
+class LiteralPrefilter {
+    // A single character is present in nearly every message, so isn't worth checking for
+    private static final int MIN_LITERAL_LENGTH = 2;
+
+    // Flags that change the meaning of literals in ways we don't account for
+    private static final int UNSUPPORTED_FLAGS = Pattern.COMMENTS | Pattern.LITERAL | Pattern.CANON_EQ;
+
+    private final int size;
+    private final BitSet unconditional = new BitSet();
+    private final List<Integer> exactOwners = new ArrayList<>();
+    private final List<Integer> foldedOwners = new ArrayList<>();
+    private final AhoCorasickAutomaton exact;
+    private final AhoCorasickAutomaton folded;
+
+    /**
+     * @param patterns The patterns of every filter in the set
+     * @param included Which of the patterns this prefilter is for; the others will never be reported as candidates
+     */
+    LiteralPrefilter(Pattern[] patterns, BitSet included) {
+        size = included.cardinality();
+
+        List<String> exactNeedles = new ArrayList<>();
+        List<String> foldedNeedles = new ArrayList<>();
+
+        for (int i = included.nextSetBit(0); i >= 0; i = included.nextSetBit(i + 1)) {
+            RegexParser parser = RegexParser.parse(patterns[i]);
+            List<String> literals = findRequiredLiterals(patterns[i], parser);
+
+            if (literals.isEmpty()) {
+                unconditional.set(i);
+            } else if (isCaseInsensitive(patterns[i], parser)) {
+                for (String literal : literals) {
+                    foldedNeedles.add(literal);
+                    foldedOwners.add(i);
+                }
+            } else {
+                for (String literal : literals) {
+                    exactNeedles.add(literal);
+                    exactOwners.add(i);
+                }
+            }
+        }
+
+        exact = exactNeedles.isEmpty() ? null : new AhoCorasickAutomaton(exactNeedles, false);
+        folded = foldedNeedles.isEmpty() ? null : new AhoCorasickAutomaton(foldedNeedles, true);
+    }
+
+    /**
+     * @return The indices of the patterns that could match the given text; any pattern not included definitely won't
+     */
+    BitSet findCandidates(CharSequence text) {
+        BitSet retval = (BitSet) unconditional.clone();
+
+        markFound(exact, exactOwners, text, retval);
+        markFound(folded, foldedOwners, text, retval);
+
+        return retval;
+    }
+
+    /**
+     * @return How many of the patterns will always have to be run, because no required literal was found for them
+     */
+    int getUnconditionalCount() {
+        return unconditional.cardinality();
+    }
+
+    /**
+     * @return The number of patterns this prefilter is for
+     */
+    int size() {
+        return size;
+    }
+
+    private static void markFound(AhoCorasickAutomaton automaton, List<Integer> owners, CharSequence text, BitSet candidates) {
+        if (automaton == null) {
+            return;
+        }
+
+        BitSet found = new BitSet(owners.size());
+        automaton.findAll(text, found);
+
+        for (int needle = found.nextSetBit(0); needle >= 0; needle = found.nextSetBit(needle + 1)) {
+            candidates.set(owners.get(needle));
+        }
+    }
+
+    /**
+     * Works out a set of strings such that any text the pattern matches must contain at least one of them.
+     *
+     * @return The required literals, or an empty list if the pattern has none (or we couldn't be sure of them)
+     */
+    private static List<String> findRequiredLiterals(Pattern pattern, RegexParser parser) {
+        if ((pattern.flags() & UNSUPPORTED_FLAGS) != 0 || parser.getInlineFlags().contains('x')) {
+            return Collections.emptyList();
+        }
+
+        List<String> retval = new ArrayList<>();
+        boolean caseInsensitive = isCaseInsensitive(pattern, parser);
+
+        for (String literal : parser.getRequiredLiterals()) {
+            // Every top-level alternative needs a literal, or the alternative without one could match anything
+            if (literal == null || literal.length() < MIN_LITERAL_LENGTH) {
+                return Collections.emptyList();
+            }
+
+            // java.util.regex folds case by code point, which per-character folding can't reproduce for surrogates
+            if (caseInsensitive && literal.chars().anyMatch(c -> Character.isSurrogate((char) c))) {
+                return Collections.emptyList();
+            }
+
+            retval.add(literal);
+        }
+
+        return retval;
+    }
+
+    private static boolean isCaseInsensitive(Pattern pattern, RegexParser parser) {
+        // Inline flags may apply to only part of the regex, but treating the whole thing as case-insensitive is safe
+        if ((pattern.flags() & (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)) != 0) {
+            return true;
+        }
+
+        return parser.getInlineFlags().contains('i') || parser.getInlineFlags().contains('u');
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.TextChannel;
+
+/**
+ * What every kind of filter has in common: who added it and when, when it expires, what to do when it matches, and the
+ * comment shown to users it's acted against.  Each filter is identified by its specification, as given to
+ * {@code filter add}, which is also what it's removed by and what its statistics are recorded under.
+ * <p>
+ * Filters apply everywhere and to everyone by default, but may be scoped to certain channels (or whole categories of
+ * channels), and to members with certain roles.
+ */
+// WARNING - This class has a natural ordering that is inconsistent with its equals()!
+abstract class MessageFilter implements Comparable<MessageFilter> {
+    private String creatorUid;
+    private long creationTime; // Unix epoch seconds
+    private Long expiry; // null means never expires
+    private FilterAction action;
+    private String comment;
+    private Long quarantineTime; // Unix epoch seconds; null if not quarantined
+    private List<String> channelScope; // IDs of channels and categories; null or empty means every channel
+    private List<String> roleScope; // IDs of roles; null or empty means every member
+
+    protected MessageFilter(String creatorUid, long creationTime, Long expiry, FilterAction action, String comment) {
+        this.creatorUid = Objects.requireNonNull(creatorUid);
+        this.creationTime = creationTime;
+        this.expiry = expiry;
+        this.action = Objects.requireNonNull(action);
+        this.comment = Objects.requireNonNull(comment);
+    }
+
+    /**
+     * @return The specification this filter was added with, which uniquely identifies it
+     */
+    public abstract String getSpec();
+
+    public String getCreatorUid() {
+        return creatorUid;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public Long getExpiry() {
+        return expiry;
+    }
+
+    public FilterAction getAction() {
+        return action;
+    }
+
+    public List<String> getChannelScope() {
+        return channelScope == null ? Collections.emptyList() : channelScope;
+    }
+
+    public List<String> getRoleScope() {
+        return roleScope == null ? Collections.emptyList() : roleScope;
+    }
+
+    /**
+     * Only call this while holding the lock on the filter repository.
+     *
+     * @param channelScope The IDs of the channels and categories this filter applies in, or empty for every channel
+     * @param roleScope The IDs of the roles this filter applies to members with, or empty for every member
+     */
+    public void setScope(List<String> channelScope, List<String> roleScope) {
+        this.channelScope = Collections.unmodifiableList(channelScope);
+        this.roleScope = Collections.unmodifiableList(roleScope);
+    }
+
+    public boolean isChannelScoped() {
+        return !getChannelScope().isEmpty();
+    }
+
+    public boolean isRoleScoped() {
+        return !getRoleScope().isEmpty();
+    }
+
+    /**
+     * @return Whether this filter applies to messages in the given channel
+     */
+    public boolean appliesIn(TextChannel channel) {
+        return !isChannelScoped()
+            || channelScope.contains(channel.getId())
+            || (channel.getParent() != null && channelScope.contains(channel.getParent().getId()));
+    }
+
+    /**
+     * @return Whether this filter applies to messages from the given member
+     */
+    public boolean appliesTo(Member member) {
+        return !isRoleScoped() || member.getRoles().stream().anyMatch(role -> roleScope.contains(role.getId()));
+    }
+
+    /**
+     * @return Whether this filter has been disabled for repeatedly timing out, until re-enabled by a moderator
+     */
+    public boolean isQuarantined() {
+        return quarantineTime != null;
+    }
+
+    public Long getQuarantineTime() {
+        return quarantineTime;
+    }
+
+    /**
+     * Only call this while holding the lock on the filter repository.
+     *
+     * @param quarantineTime When the filter was quarantined, or null to release it from quarantine
+     */
+    public void setQuarantineTime(Long quarantineTime) {
+        this.quarantineTime = quarantineTime;
+    }
+
+    @Override
+    public int compareTo(MessageFilter o) {
+        Objects.requireNonNull(o);
+
+        if (expiry == null) {
+            if (o.expiry == null) {
+                return 0;
+            } else {
+                return 1;
+            }
+        } else {
+            if (o.expiry == null) {
+                return -1;
+            } else {
+                return Long.compare(expiry, o.expiry);
+            }
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getSpec());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof MessageFilter) {
+            return getSpec().equals(((MessageFilter) other).getSpec());
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Produces the normalized view of a message that filters with the {@code n} option are matched against, undoing the
+ * usual tricks for evading filters:
+ * <ul>
+ *     <li>Compatibility decomposition (NFKD) turns fullwidth, circled, superscript, "mathematical" and similar styled
+ *     letters into their plain equivalents;</li>
+ *     <li>Combining marks (accents, strikethroughs, "zalgo" text) are removed;</li>
+ *     <li>Zero-width and other invisible characters are removed;</li>
+ *     <li>Letters from other scripts that look like Latin letters (Cyrillic "о", Greek "ν", etc.) are replaced with the
+ *     Latin letters they resemble; and</li>
+ *     <li>Everything is case-folded to lower case.</li>
+ * </ul>
+ * Filters matching the normalized view can therefore be written with plain lower-case Latin letters.
+ */
+final class MessageNormalizer {
+    // Capital letters that look like Latin capitals, but whose lower-case forms don't look like Latin letters (or look
+    // like different ones, as with Greek "Ν" and "ν"), so must be mapped before case folding
+    private static final Map<Integer, Integer> CAPITAL_CONFUSABLES = new HashMap<>();
+
+    // Everything else, in lower case, since these are mapped after case folding
+    private static final Map<Integer, Integer> CONFUSABLES = new HashMap<>();
+
+    static {
+        addConfusables(CAPITAL_CONFUSABLES, "abehikmnoptxyz", "ΑΒΕΗΙΚΜΝΟΡΤΧΥΖ");
+        addConfusables(CAPITAL_CONFUSABLES, "abehkmoptx", "АВЕНКМОРТХ");
+
+        addConfusables(CONFUSABLES, "abcdeghijklmnopqrstuvwxy", "аьсԁеɡһіјκӏмոорԛгѕτυνԝху");
+        addConfusables(CONFUSABLES, "aeiknoptuvxy", "αειкηορтսѵχɣ");
+        addConfusables(CONFUSABLES, "ahijnoy", "ɑհıȷղօү");
+        // Small capitals
+        addConfusables(CONFUSABLES, "abcdefghijklmnopqrstuvwyz", "ᴀʙᴄᴅᴇғɢʜɪᴊᴋʟᴍɴᴏᴘǫʀꜱᴛᴜᴠᴡʏᴢ");
+    }
+
+    // Characters that render as nothing (or as blank space) but aren't format characters or whitespace
+    private static final String INVISIBLE = "ᅟᅠㅤﾠ⠀";
+
+    private MessageNormalizer() {
+        throw new IllegalStateException("MessageNormalizer class may not be instantiated.");
+    }
+
+    private static void addConfusables(Map<Integer, Integer> table, String latin, String lookalikes) {
+        if (latin.length() != lookalikes.length()) {
+            throw new IllegalStateException("Confusable tables are misaligned");
+        }
+
+        for (int i = 0; i < latin.length(); i++) {
+            table.put((int) lookalikes.charAt(i), (int) latin.charAt(i));
+        }
+    }
+
+    static String normalize(String message) {
+        String decomposed = Normalizer.normalize(message, Normalizer.Form.NFKD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+
+        decomposed.codePoints().forEach(codePoint -> {
+            switch (Character.getType(codePoint)) {
+                case Character.NON_SPACING_MARK:
+                case Character.ENCLOSING_MARK:
+                case Character.COMBINING_SPACING_MARK:
+                case Character.FORMAT: // Zero-width spaces and joiners, direction overrides, soft hyphens, etc.
+                    return;
+            }
+
+            if (INVISIBLE.indexOf(codePoint) != -1) {
+                return;
+            }
+
+            Integer latin = CAPITAL_CONFUSABLES.get(codePoint);
+            if (latin != null) {
+                sb.appendCodePoint(latin);
+                return;
+            }
+
+            int folded = Character.toLowerCase(Character.toUpperCase(codePoint));
+            sb.appendCodePoint(CONFUSABLES.getOrDefault(folded, folded));
+        });
+
+        return sb.toString();
+    }
+}
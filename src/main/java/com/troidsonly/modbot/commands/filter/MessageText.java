@@ -0,0 +1,84 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * The text of a single message as seen by the filters: the full message (see
+ * {@link com.troidsonly.modbot.utils.Miscellaneous#getFullMessage(net.dv8tion.jda.api.entities.Message)}), plus its
+ * normalized view (see {@link MessageNormalizer}), which is only computed once, and only if a filter needs it.
+ */
+class MessageText {
+    private final String raw;
+    private volatile String normalized = null;
+    private volatile HashCode contentHash = null;
+
+    MessageText(String raw) {
+        this.raw = Objects.requireNonNull(raw);
+    }
+
+    String getRaw() {
+        return raw;
+    }
+
+    String getNormalized() {
+        String retval = normalized;
+
+        if (retval == null) {
+            // Racing threads may both compute this, but will get the same result
+            retval = MessageNormalizer.normalize(raw);
+            normalized = retval;
+        }
+
+        return retval;
+    }
+
+    /**
+     * @return A 128-bit hash of the message text, for identifying repeated copies of the same message
+     */
+    HashCode getContentHash() {
+        HashCode retval = contentHash;
+
+        if (retval == null) {
+            retval = Hashing.murmur3_128().hashString(raw, StandardCharsets.UTF_8);
+            contentHash = retval;
+        }
+
+        return retval;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Estimates how expensive a regex is likely to be before it's let loose on every message: by looking for constructs
+ * known to cause catastrophic backtracking, and by measuring how many steps (see {@link BudgetedCharSequence}) it
+ * actually takes against inputs designed to provoke backtracking and against real messages.
+ */
+final class RegexCostAnalyzer {
+    private static final int[] ADVERSARIAL_LENGTHS = {64, 512, 2048};
+    private static final int MAX_SEED_CHARACTERS = 16;
+    private static final String NON_MATCHING_SUFFIX = "!\u0001";
+
+    // Characters used to decide whether two atoms, such as a character class and a literal, can match the same thing
+    private static final String OVERLAP_SAMPLE;
+
+    static {
+        StringBuilder sb = new StringBuilder("\t\n\u00e9\u0430"); // Include a couple of non-ASCII letters
+        for (char c = 0x20; c < 0x7F; c++) {
+            sb.append(c);
+        }
+        OVERLAP_SAMPLE = sb.toString();
+    }
+
+    private RegexCostAnalyzer() {
+        throw new IllegalStateException("RegexCostAnalyzer class may not be instantiated.");
+    }
+
+    /**
+     * Looks for nested unbounded quantifiers (such as {@code (a+)+}) and quantified alternations whose branches can
+     * match the same character (such as {@code (a|ab)*}), either of which can make a failing match take exponential
+     * time.  Possessive quantifiers and atomic groups don't backtrack, so they're not reported.
+     *
+     * @param pattern The compiled pattern to check
+     * @return Human-readable descriptions of each risky construct found; empty if none were found
+     */
+    static List<String> findRiskyConstructs(Pattern pattern) {
+        RegexParser parser = RegexParser.parse(pattern);
+        Set<String> risks = new LinkedHashSet<>();
+
+        findRisks(parser, parser.getRoot(), pattern.flags(), risks);
+
+        return new ArrayList<>(risks);
+    }
+
+    /**
+     * Generates inputs likely to make the given pattern backtrack heavily: long runs of the characters (and character
+     * sequences) that appear in the pattern, each ending in characters that the pattern is unlikely to accept.
+     */
+    static List<String> generateAdversarialInputs(Pattern pattern) {
+        RegexParser parser = RegexParser.parse(pattern);
+
+        Set<String> seeds = new LinkedHashSet<>();
+        for (char c : parser.getLiteralCharacters()) {
+            if (seeds.size() >= MAX_SEED_CHARACTERS) {
+                break;
+            }
+            seeds.add(String.valueOf(c));
+        }
+        seeds.add("a");
+        seeds.add("0");
+        seeds.add(" ");
+        seeds.addAll(parser.getLiteralRuns());
+
+        List<String> retval = new ArrayList<>();
+        for (String seed : seeds) {
+            for (int length : ADVERSARIAL_LENGTHS) {
+                StringBuilder sb = new StringBuilder(length + NON_MATCHING_SUFFIX.length());
+                while (sb.length() < length) {
+                    sb.append(seed);
+                }
+                retval.add(sb.append(NON_MATCHING_SUFFIX).toString());
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * Runs the pattern against each input, stopping early if any single input takes more than {@code maxSteps}, or if
+     * the deadline passes.
+     *
+     * @param deadline The {@link System#nanoTime()} after which no more inputs are tried
+     */
+    static Cost measure(Pattern pattern, Collection<String> inputs, long maxSteps, long deadline) {
+        Cost cost = new Cost();
+
+        for (String input : inputs) {
+            if (System.nanoTime() - deadline > 0L) {
+                cost.outOfTime = true;
+                break;
+            }
+
+            BudgetedCharSequence subject = new BudgetedCharSequence(input, maxSteps);
+            long start = System.nanoTime();
+            long steps;
+
+            try {
+                pattern.matcher(subject).find();
+                steps = subject.getStepsUsed();
+            } catch (MatchBudgetExceededException | StackOverflowError e) {
+                // Deep enough recursion to overflow the stack is just as bad as running out of steps
+                steps = maxSteps;
+                cost.exceeded = true;
+            }
+
+            long nanos = System.nanoTime() - start;
+
+            if (steps > cost.worstSteps) {
+                cost.worstSteps = steps;
+                cost.worstInput = input;
+            }
+            cost.worstNanos = Math.max(cost.worstNanos, nanos);
+            cost.inputsTried++;
+
+            if (cost.exceeded) {
+                break;
+            }
+        }
+
+        return cost;
+    }
+
+    static class Cost {
+        private long worstSteps = 0L;
+        private long worstNanos = 0L;
+        private String worstInput = null;
+        private int inputsTried = 0;
+        private boolean exceeded = false;
+        private boolean outOfTime = false;
+
+        public long getWorstSteps() {
+            return worstSteps;
+        }
+
+        public long getWorstNanos() {
+            return worstNanos;
+        }
+
+        public String getWorstInput() {
+            return worstInput;
+        }
+
+        public int getInputsTried() {
+            return inputsTried;
+        }
+
+        /**
+         * @return Whether measuring was cut short because an input exceeded the step limit
+         */
+        public boolean isExceeded() {
+            return exceeded;
+        }
+
+        /**
+         * @return Whether measuring was cut short because the deadline passed before every input had been tried
+         */
+        public boolean isOutOfTime() {
+            return outOfTime;
+        }
+
+        /**
+         * Combines the worst case of this and another measurement.
+         */
+        public Cost merge(Cost other) {
+            Cost retval = new Cost();
+            Cost worse = other.worstSteps > worstSteps ? other : this;
+            retval.worstSteps = worse.worstSteps;
+            retval.worstInput = worse.worstInput;
+            retval.worstNanos = Math.max(worstNanos, other.worstNanos);
+            retval.inputsTried = inputsTried + other.inputsTried;
+            retval.exceeded = exceeded || other.exceeded;
+            retval.outOfTime = outOfTime || other.outOfTime;
+            return retval;
+        }
+    }
+
+    private static void findRisks(RegexParser parser, List<List<RegexParser.Node>> alternatives, int flags, Set<String> risks) {
+        for (List<RegexParser.Node> alternative : alternatives) {
+            for (RegexParser.Node node : alternative) {
+                if (!node.isGroup()) {
+                    continue;
+                }
+
+                if (node.backtracks()) {
+                    if (containsBacktrackingQuantifier(node.getAlternatives())) {
+                        risks.add("Nested quantifier: `" + parser.textOf(node) + '`');
+                    }
+
+                    if (alternativesOverlap(node.getAlternatives(), flags)) {
+                        risks.add("Quantified alternation with overlapping branches: `" + parser.textOf(node) + '`');
+                    }
+                }
+
+                findRisks(parser, node.getAlternatives(), flags, risks);
+            }
+        }
+    }
+
+    private static boolean containsBacktrackingQuantifier(List<List<RegexParser.Node>> alternatives) {
+        for (List<RegexParser.Node> alternative : alternatives) {
+            for (RegexParser.Node node : alternative) {
+                if (node.backtracks() || (node.isGroup() && !node.isAtomic() && containsBacktrackingQuantifier(node.getAlternatives()))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean alternativesOverlap(List<List<RegexParser.Node>> alternatives, int flags) {
+        if (alternatives.size() < 2) {
+            return false;
+        }
+
+        List<String> firstAtoms = new ArrayList<>();
+
+        for (List<RegexParser.Node> alternative : alternatives) {
+            String atom = RegexParser.firstAtomOf(Collections.singletonList(alternative));
+
+            if (atom.equals(RegexParser.ANY)) {
+                // An empty branch, or one we can't reason about
+                return true;
+            }
+
+            firstAtoms.add(atom);
+        }
+
+        for (int i = 0; i < firstAtoms.size(); i++) {
+            for (int j = i + 1; j < firstAtoms.size(); j++) {
+                if (atomsOverlap(firstAtoms.get(i), firstAtoms.get(j), flags)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean atomsOverlap(String a, String b, int flags) {
+        Pattern patternA = Pattern.compile(a, flags);
+        Pattern patternB = Pattern.compile(b, flags);
+
+        String sample = OVERLAP_SAMPLE + a + b; // Include the atoms themselves, so literals are tested too
+
+        for (int i = 0; i < sample.length(); i++) {
+            String c = String.valueOf(sample.charAt(i));
+
+            if (patternA.matcher(c).matches() && patternB.matcher(c).matches()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -41,8 +41,7 @@ import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-// WARNING - This class has a natural ordering that is inconsistent with its equals()!
-class RegexFilter implements Comparable<RegexFilter> {
+class RegexFilter extends MessageFilter {
     // There are several substring types that we match.
     // A) any character except \
     // B) 0 or more copies of either an escaped character, or something other than \
@@ -57,40 +56,31 @@ class RegexFilter implements Comparable<RegexFilter> {
     private static final String REGEX_AB = "^([^\\\\\\sA-Za-z0-9])" + REGEX_B;
     private static final String REGEX_CD = "\\1" + REGEX_D;
     private static final String REGEX_VALID_FILTER = REGEX_AB + REGEX_CD;
-    private static final Pattern PATTERN_OPTIONS = Pattern.compile("i*");
+    private static final Pattern PATTERN_OPTIONS = Pattern.compile("[inl]*");
 
     static final Pattern PATTERN_VALID_FILTER = Pattern.compile(REGEX_VALID_FILTER);
 
     private String regex;
-    private String creatorUid;
-    private long creationTime; // Unix epoch seconds
-    private Long expiry; // null means never expires
-    private FilterAction action;
-    private String comment;
+    private Long costSteps; // Worst case seen when benchmarked on being added; null if never benchmarked
+    private Long costNanos;
 
     private transient Pattern pattern = null;
+    private transient Boolean normalized = null;
+    private transient com.google.re2j.Pattern linearPattern = null;
+    private transient String linearIncompatibility = null;
+    // Written after the two fields above, so a thread that sees it set also sees them
+    private transient volatile boolean linearPatternGenerated = false;
 
     public RegexFilter(String regex, String creatorUid, long creationTime, Long expiry, FilterAction action, String comment) {
+        super(creatorUid, creationTime, expiry, action, comment);
         this.regex = Objects.requireNonNull(regex);
-        this.creatorUid = Objects.requireNonNull(creatorUid);
-        this.creationTime = creationTime;
-        this.expiry = expiry;
-        this.action = Objects.requireNonNull(action);
-        this.comment = Objects.requireNonNull(comment);
 
         pattern = generatePattern(this.regex);
     }
 
-    public String getCreatorUid() {
-        return creatorUid;
-    }
-
-    public long getCreationTime() {
-        return creationTime;
-    }
-
-    public String getComment() {
-        return comment;
+    @Override
+    public String getSpec() {
+        return regex;
     }
 
     public Pattern getPattern() {
@@ -101,32 +91,94 @@ class RegexFilter implements Comparable<RegexFilter> {
         return pattern;
     }
 
-    public Long getExpiry() {
-        return expiry;
+    /**
+     * @return Whether this filter should be matched against the normalized view of messages (see
+     * {@link MessageNormalizer}), rather than the messages as sent
+     */
+    public boolean isNormalized() {
+        if (normalized == null) {
+            normalized = getOptions(regex).contains("n");
+        }
+
+        return normalized;
+    }
+
+    /**
+     * @return Whether this filter should be run on the linear-time engine even if it isn't the default
+     */
+    public boolean isLinear() {
+        return getOptions(regex).contains("l");
+    }
+
+    /**
+     * The linear-time engine (RE2/J) never backtracks, so no message can make it take longer than time proportional to
+     * the message's length.  In exchange, it doesn't support backreferences, lookaround, possessive quantifiers or
+     * atomic groups.  It also accepts some syntax that means something different to java.util.regex; patterns using any
+     * of that are kept on java.util.regex too, so that switching engines never changes what a filter matches (see
+     * {@link #findLinearIncompatibility(String, boolean)}).
+     *
+     * @return This filter's pattern compiled for the linear-time engine, or null if it must be run on java.util.regex
+     */
+    public com.google.re2j.Pattern getLinearPattern() {
+        if (!linearPatternGenerated) {
+            generateLinearPattern();
+        }
+
+        return linearPattern;
+    }
+
+    /**
+     * @return Why this filter can't be run on the linear-time engine, or null if it can
+     */
+    public String getLinearIncompatibility() {
+        if (!linearPatternGenerated) {
+            generateLinearPattern();
+        }
+
+        return linearIncompatibility;
     }
 
     public String getRegex() {
         return regex;
     }
 
-    public FilterAction getAction() {
-        return action;
+    public Long getCostSteps() {
+        return costSteps;
     }
 
-    private static Pattern generatePattern(String regex) {
+    public Long getCostNanos() {
+        return costNanos;
+    }
+
+    public void setMeasuredCost(long costSteps, long costNanos) {
+        this.costSteps = costSteps;
+        this.costNanos = costNanos;
+    }
+
+    private static Matcher parseRegex(String regex) {
         Matcher m = PATTERN_VALID_FILTER.matcher(regex);
 
         if (!m.find()) {
             throw new IllegalArgumentException("regex is not valid");
         }
 
+        if (!PATTERN_OPTIONS.matcher(m.group(3)).matches()) {
+            throw new IllegalArgumentException("Invalid options '" + m.group(3) + "'");
+        }
+
+        return m;
+    }
+
+    private static String getOptions(String regex) {
+        return parseRegex(regex).group(3);
+    }
+
+    private static Pattern generatePattern(String regex) {
+        Matcher m = parseRegex(regex);
+
         String actualRegexPart = m.group(2);
         String options = m.group(3);
 
-        if (!PATTERN_OPTIONS.matcher(options).matches()) {
-            throw new IllegalArgumentException("Invalid options '" + options + "'");
-        }
-
         int flags = 0;
         if (options.contains("i")) {
             flags = Pattern.CASE_INSENSITIVE;
@@ -135,47 +187,111 @@ class RegexFilter implements Comparable<RegexFilter> {
         return Pattern.compile(actualRegexPart, flags);
     }
 
-    public static boolean isValidRegex(String regex) {
-        return PATTERN_VALID_FILTER.matcher(regex).find();
-    }
+    private synchronized void generateLinearPattern() {
+        if (linearPatternGenerated) {
+            // Another thread got here first
+            return;
+        }
 
-    @Override
-    public int compareTo(RegexFilter o) {
-        Objects.requireNonNull(o);
-
-        if (expiry == null) {
-            if (o.expiry == null) {
-                return 0;
-            } else {
-                return 1;
-            }
-        } else {
-            if (o.expiry == null) {
-                return -1;
-            } else {
-                return Long.compare(expiry, o.expiry);
+        Matcher m = parseRegex(regex);
+
+        String actualRegexPart = m.group(2);
+        String options = m.group(3);
+
+        int flags = 0;
+        if (options.contains("i")) {
+            flags = com.google.re2j.Pattern.CASE_INSENSITIVE;
+        }
+
+        linearIncompatibility = findLinearIncompatibility(actualRegexPart, options.contains("i"));
+
+        if (linearIncompatibility == null) {
+            try {
+                linearPattern = com.google.re2j.Pattern.compile(actualRegexPart, flags);
+            } catch (com.google.re2j.PatternSyntaxException e) {
+                linearIncompatibility = "uses syntax it doesn't support (" + e.getDescription() + ')';
             }
         }
-    }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(regex);
+        linearPatternGenerated = true;
     }
 
-    public boolean canEqual(Object other) {
-        return other instanceof RegexFilter;
-    }
+    /**
+     * Looks for syntax that RE2/J accepts but gives a different meaning to than java.util.regex does.  This errs on the
+     * side of caution; the only differences it lets through are that RE2/J's {@code .} matches {@code \r} and the
+     * Unicode line and paragraph separators, and that its case-insensitive matching also folds the few non-ASCII
+     * letters (such as the Kelvin sign) that are equivalent to an ASCII one, both of which can only make a filter match
+     * more.
+     *
+     * @param regex The pattern, without its delimiters or options
+     * @return A description of the first such construct found, or null if there are none
+     */
+    static String findLinearIncompatibility(String regex, boolean caseInsensitive) {
+        boolean inClass = false;
+        int classStart = -1;
 
-    @Override
-    public boolean equals(Object other) {
-        if (other instanceof RegexFilter) {
-            RegexFilter that = (RegexFilter) other;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+
+            if (caseInsensitive && c > 0x7F && Character.isLetter(c)) {
+                return "matches non-ASCII letters case-insensitively, which java.util.regex only does for ASCII";
+            }
+
+            if (c == '\\') {
+                char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+
+                switch (next) {
+                    case 'b':
+                    case 'B':
+                        if (!inClass) {
+                            return "uses `\\" + next + "`, which java.util.regex applies to all letters, not just ASCII ones";
+                        }
+                        break;
+                    case 'v':
+                        return "uses `\\v`, which java.util.regex takes to mean any vertical whitespace, not just a vertical tab";
+                    case 'Q':
+                        // Quoted literally, but must still be checked for non-ASCII letters
+                        int end = regex.indexOf("\\E", i + 2);
+                        end = end < 0 ? regex.length() : end;
+
+                        for (int j = i + 2; j < end; j++) {
+                            if (caseInsensitive && regex.charAt(j) > 0x7F && Character.isLetter(regex.charAt(j))) {
+                                return "matches non-ASCII letters case-insensitively, which java.util.regex only does for ASCII";
+                            }
+                        }
 
-            return that.canEqual(this)
-                && regex.equals(that.regex);
+                        i = end + 1;
+                        continue;
+                }
+
+                i++;
+                continue;
+            }
+
+            if (inClass) {
+                if (c == ']' && i > classStart) {
+                    inClass = false;
+                } else if (c == '[') {
+                    return "uses `[` inside a character class, which java.util.regex takes as a nested class";
+                } else if (c == '&' && i + 1 < regex.length() && regex.charAt(i + 1) == '&') {
+                    return "uses `&&` inside a character class, which java.util.regex takes as an intersection";
+                }
+            } else if (c == '[') {
+                inClass = true;
+                // A ] straight after the [ (or [^) is a literal
+                classStart = i + 1 < regex.length() && regex.charAt(i + 1) == '^' ? i + 2 : i + 1;
+            } else if (c == '$') {
+                return "uses `$`, which java.util.regex also matches before a line break at the end of the message";
+            } else if (c == '(' && i + 2 < regex.length() && regex.charAt(i + 1) == '?' &&
+                (Character.isLetter(regex.charAt(i + 2)) || regex.charAt(i + 2) == '-')) {
+                return "sets flags inline, some of which mean something different to java.util.regex";
+            }
         }
 
-        return false;
+        return null;
+    }
+
+    public static boolean isValidRegex(String regex) {
+        return PATTERN_VALID_FILTER.matcher(regex).find();
     }
 }
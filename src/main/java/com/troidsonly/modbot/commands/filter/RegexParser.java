@@ -0,0 +1,489 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A deliberately forgiving parser for java.util.regex syntax, used to reason about the structure of filter regexes.  It
+ * only needs to understand enough to find groups, alternations, quantifiers and literal characters; anything it can't
+ * classify is treated as able to match anything.  Patterns are assumed to have already compiled successfully.
+ */
+class RegexParser {
+    static final String ANY = ".";
+
+    private final String regex;
+    private final Set<Character> literalCharacters = new LinkedHashSet<>();
+    private final Set<String> literalRuns = new LinkedHashSet<>();
+
+    private final Set<Character> inlineFlags = new LinkedHashSet<>();
+    private int pos = 0;
+
+    private RegexParser(String regex) {
+        this.regex = regex;
+    }
+
+    static RegexParser parse(Pattern pattern) {
+        RegexParser parser = new RegexParser(pattern.pattern());
+        parser.root = parser.parseAlternatives();
+        return parser;
+    }
+
+    private List<List<Node>> root;
+
+    /**
+     * @return The top-level alternatives of the regex, each a sequence of nodes
+     */
+    List<List<Node>> getRoot() {
+        return root;
+    }
+
+    String getRegex() {
+        return regex;
+    }
+
+    /**
+     * @return Every character that appears as a literal in the regex
+     */
+    Set<Character> getLiteralCharacters() {
+        return literalCharacters;
+    }
+
+    /**
+     * @return Runs of two or more plain letters, digits or spaces that must appear consecutively for a branch to match
+     */
+    Set<String> getLiteralRuns() {
+        return literalRuns;
+    }
+
+    /**
+     * @return Every flag letter the regex sets or clears partway through, e.g. with {@code (?i)} or {@code (?-x:...)}
+     */
+    Set<Character> getInlineFlags() {
+        return inlineFlags;
+    }
+
+    /**
+     * Finds, for each top-level alternative, the longest run of literal text that every match of that alternative
+     * must contain.  Only literals outside of groups are considered, and zero-width assertions such as {@code \b} are
+     * skipped over, so the result is conservative: if the regex matches some text, that text contains the required
+     * literal of at least one alternative.
+     *
+     * @return The required literal of each top-level alternative, or {@code null} for an alternative without one
+     */
+    List<String> getRequiredLiterals() {
+        List<String> retval = new ArrayList<>();
+
+        for (List<Node> alternative : root) {
+            String longest = null;
+            StringBuilder run = new StringBuilder();
+
+            for (Node node : alternative) {
+                if (node.zeroWidth) {
+                    continue;
+                }
+
+                if (node.literal != null && !node.optional) {
+                    run.append(node.literal);
+                    if (!node.quantified) {
+                        continue;
+                    }
+                    // A repeated literal must still appear once, but whatever follows it needn't be adjacent
+                }
+
+                if (longest == null || run.length() > longest.length()) {
+                    longest = run.toString();
+                }
+                run.setLength(0);
+            }
+
+            if (longest == null || run.length() > longest.length()) {
+                longest = run.toString();
+            }
+
+            retval.add(longest.isEmpty() ? null : longest);
+        }
+
+        return retval;
+    }
+
+    String textOf(Node node) {
+        return regex.substring(node.start, node.end);
+    }
+
+    private List<List<Node>> parseAlternatives() {
+        List<List<Node>> alternatives = new ArrayList<>();
+        List<Node> current = new ArrayList<>();
+        StringBuilder literalRun = new StringBuilder();
+
+        while (pos < regex.length()) {
+            char c = regex.charAt(pos);
+
+            if (c == ')') {
+                break;
+            } else if (c == '|') {
+                alternatives.add(current);
+                current = new ArrayList<>();
+                endLiteralRun(literalRun);
+                pos++;
+                continue;
+            }
+
+            Node node = parseAtom();
+            if (node == null) {
+                continue;
+            }
+
+            parseQuantifier(node);
+            node.end = pos;
+            current.add(node);
+
+            if (node.zeroWidth) {
+                continue;
+            } else if (node.literal != null && !node.optional && !node.unbounded) {
+                literalRun.append(node.literal);
+            } else {
+                endLiteralRun(literalRun);
+            }
+        }
+
+        endLiteralRun(literalRun);
+        alternatives.add(current);
+        return alternatives;
+    }
+
+    private void endLiteralRun(StringBuilder literalRun) {
+        // Only remember runs made entirely of plain characters, since those can be used verbatim as input
+        if (literalRun.length() > 1 && literalRun.chars().allMatch(ch -> Character.isLetterOrDigit(ch) || ch == ' ')) {
+            literalRuns.add(literalRun.toString());
+        }
+        literalRun.setLength(0);
+    }
+
+    private Node parseAtom() {
+        int start = pos;
+        char c = regex.charAt(pos++);
+
+        switch (c) {
+            case '(':
+                return parseGroup(start);
+            case '[':
+                skipCharacterClass();
+                return new Node(start, null, false, false, regex.substring(start, pos), null);
+            case '\\':
+                return parseEscape(start);
+            case '.':
+                return new Node(start, null, false, false, ANY, null);
+            case '^':
+            case '$':
+                return new Node(start, null, false, true, ANY, null);
+            default:
+                return literalNode(start, nextCodePoint(start));
+        }
+    }
+
+    /**
+     * java.util.regex treats a surrogate pair as a single character, so a quantifier following one applies to the
+     * whole pair, not just the low surrogate.  Literals must therefore be taken a code point at a time.
+     *
+     * @param start The index of the first char of the code point, which {@link #pos} must be just after
+     * @return The code point as a string, having moved {@link #pos} past the rest of it
+     */
+    private String nextCodePoint(int start) {
+        pos = Math.min(regex.length(), start + Character.charCount(regex.codePointAt(start)));
+        return regex.substring(start, pos);
+    }
+
+    private Node literalNode(int start, String literal) {
+        for (char c : literal.toCharArray()) {
+            literalCharacters.add(c);
+        }
+
+        String first = literal.substring(0, Character.charCount(literal.codePointAt(0)));
+        return new Node(start, null, false, false, Pattern.quote(first), literal);
+    }
+
+    private Node parseGroup(int start) {
+        boolean atomic = false;
+        boolean lookaround = false;
+
+        if (pos < regex.length() && regex.charAt(pos) == '?') {
+            pos++;
+            char type = pos < regex.length() ? regex.charAt(pos) : ')';
+
+            if (type == ':') {
+                pos++;
+            } else if (type == '>') {
+                atomic = true;
+                pos++;
+            } else if (type == '=' || type == '!') {
+                lookaround = true;
+                pos++;
+            } else if (type == '<' && pos + 1 < regex.length() && (regex.charAt(pos + 1) == '=' || regex.charAt(pos + 1) == '!')) {
+                lookaround = true;
+                pos += 2;
+            } else if (type == '<') {
+                // Named group
+                pos = Math.max(pos, regex.indexOf('>', pos)) + 1;
+            } else {
+                // Inline flags, either on their own (e.g., "(?i)") or applied to a group (e.g., "(?i:...)")
+                while (pos < regex.length() && regex.charAt(pos) != ':' && regex.charAt(pos) != ')') {
+                    if (regex.charAt(pos) != '-') {
+                        inlineFlags.add(regex.charAt(pos));
+                    }
+                    pos++;
+                }
+
+                if (pos >= regex.length() || regex.charAt(pos++) == ')') {
+                    return null;
+                }
+            }
+        }
+
+        List<List<Node>> alternatives = parseAlternatives();
+        if (pos < regex.length()) {
+            pos++; // The closing parenthesis
+        }
+
+        return new Node(start, alternatives, atomic, lookaround, lookaround ? ANY : firstAtomOf(alternatives), null);
+    }
+
+    private Node parseEscape(int start) {
+        if (pos >= regex.length()) {
+            return literalNode(start, "\\");
+        }
+
+        char e = regex.charAt(pos++);
+
+        if (e == 'Q') {
+            int end = regex.indexOf("\\E", pos);
+            String quoted = regex.substring(pos, end == -1 ? regex.length() : end);
+            pos = end == -1 ? regex.length() : end + 2;
+
+            return quoted.isEmpty() ? null : literalNode(start, quoted);
+        } else if ((e == 'p' || e == 'P' || e == 'x' || e == 'N') && pos < regex.length() && regex.charAt(pos) == '{') {
+            pos = regex.indexOf('}', pos) + 1;
+        } else if (e == 'k' && pos < regex.length() && regex.charAt(pos) == '<') {
+            pos = regex.indexOf('>', pos) + 1;
+        } else if (e == 'x') {
+            pos = Math.min(regex.length(), pos + 2);
+        } else if (e == 'u') {
+            pos = Math.min(regex.length(), pos + 4);
+        } else if (e == 'c') {
+            pos = Math.min(regex.length(), pos + 1);
+        } else if (e == '0') {
+            while (pos < regex.length() && pos - start < 5 && regex.charAt(pos) >= '0' && regex.charAt(pos) <= '7') {
+                pos++;
+            }
+        } else if ("bBAGZzK".indexOf(e) != -1) {
+            return new Node(start, null, false, true, ANY, null);
+        } else if (!Character.isLetterOrDigit(e)) {
+            return literalNode(start, nextCodePoint(pos - 1));
+        } else if ("tnrfae".indexOf(e) != -1) {
+            return new Node(start, null, false, false, regex.substring(start, pos), null);
+        }
+
+        // Character classes (\w, \d, \p{...}, etc.), backreferences and anything else: may match anything
+        return new Node(start, null, false, false, classAtom(start), null);
+    }
+
+    private String classAtom(int start) {
+        String atom = regex.substring(start, pos);
+
+        // Backreferences can't be used out of context; anything else we couldn't handle is assumed to match anything
+        if (atom.length() > 1 && Character.isDigit(atom.charAt(1))) {
+            return ANY;
+        }
+
+        try {
+            Pattern.compile(atom);
+            return atom;
+        } catch (Exception e) {
+            return ANY;
+        }
+    }
+
+    private void skipCharacterClass() {
+        int depth = 1;
+
+        if (pos < regex.length() && regex.charAt(pos) == '^') {
+            pos++;
+        }
+        if (pos < regex.length() && regex.charAt(pos) == ']') {
+            pos++;
+        }
+
+        while (pos < regex.length() && depth > 0) {
+            char c = regex.charAt(pos++);
+
+            if (c == '\\') {
+                pos++;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            }
+        }
+
+        pos = Math.min(pos, regex.length());
+    }
+
+    private void parseQuantifier(Node node) {
+        if (pos >= regex.length()) {
+            return;
+        }
+
+        char c = regex.charAt(pos);
+
+        if (c == '*' || c == '+' || c == '?') {
+            node.optional = c != '+';
+            node.unbounded = c != '?';
+            node.quantified = true;
+            pos++;
+        } else if (c == '{') {
+            int close = regex.indexOf('}', pos);
+            if (close == -1) {
+                return;
+            }
+
+            String[] bounds = regex.substring(pos + 1, close).split(",", -1);
+            node.optional = bounds[0].trim().equals("0");
+            node.unbounded = bounds.length > 1 && bounds[1].trim().isEmpty();
+            node.quantified = true;
+            pos = close + 1;
+        } else {
+            return;
+        }
+
+        if (pos < regex.length() && regex.charAt(pos) == '+') {
+            node.possessive = true;
+            pos++;
+        } else if (pos < regex.length() && regex.charAt(pos) == '?') {
+            pos++; // Reluctant quantifiers still backtrack
+        }
+    }
+
+    /**
+     * @return A regex matching (at least) every character that the given alternatives could start with, or
+     * {@link #ANY} if that can't be narrowed down
+     */
+    static String firstAtomOf(List<List<Node>> alternatives) {
+        List<String> atoms = new ArrayList<>();
+
+        for (List<Node> alternative : alternatives) {
+            String atom = ANY;
+
+            for (Node node : alternative) {
+                if (node.zeroWidth) {
+                    continue;
+                }
+
+                // If the first node can be skipped, the alternative could start with whatever comes next
+                atom = node.optional ? ANY : node.firstAtom;
+                break;
+            }
+
+            if (atom.equals(ANY)) {
+                return ANY;
+            }
+
+            atoms.add(atom);
+        }
+
+        return atoms.size() == 1 ? atoms.get(0) : "(?:" + String.join("|", atoms) + ')';
+    }
+
+    static class Node {
+        private final int start;
+        private int end;
+        private final List<List<Node>> alternatives; // null for anything that isn't a group
+        private final boolean atomic;
+        private final boolean zeroWidth;
+        private final String firstAtom; // A regex for the first character this node can match
+        private final String literal; // The exact text this node matches, if it's a literal
+
+        private boolean quantified = false;
+        private boolean optional = false;
+        private boolean unbounded = false;
+        private boolean possessive = false;
+
+        private Node(int start, List<List<Node>> alternatives, boolean atomic, boolean zeroWidth, String firstAtom, String literal) {
+            this.start = start;
+            this.alternatives = alternatives;
+            this.atomic = atomic;
+            this.zeroWidth = zeroWidth;
+            this.firstAtom = firstAtom;
+            this.literal = literal;
+        }
+
+        List<List<Node>> getAlternatives() {
+            return alternatives;
+        }
+
+        boolean isGroup() {
+            return alternatives != null;
+        }
+
+        boolean isAtomic() {
+            return atomic;
+        }
+
+        boolean isZeroWidth() {
+            return zeroWidth;
+        }
+
+        String getLiteral() {
+            return literal;
+        }
+
+        boolean isQuantified() {
+            return quantified;
+        }
+
+        boolean isOptional() {
+            return optional;
+        }
+
+        /**
+         * @return Whether this node has a quantifier with no upper bound that backtracks (i.e., isn't possessive and
+         * isn't applied to an atomic group)
+         */
+        boolean backtracks() {
+            return unbounded && !possessive && !atomic;
+        }
+    }
+}
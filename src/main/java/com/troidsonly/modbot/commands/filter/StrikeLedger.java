@@ -0,0 +1,143 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers when each user last tripped filters, so that repeat offenders can be dealt with more severely.  Each user
+ * has a small ring of strike times, held as primitive longs in an {@link AtomicLongArray}: element 0 counts every
+ * strike ever recorded (so also says which slot to overwrite next), and the rest hold the time of each of the most
+ * recent strikes.  Strikes older than the window simply stop being counted, so nothing ever has to be removed on the
+ * hot path, and recording a strike takes no locks once a user has a ring.
+ * <p>
+ * The ring only needs to hold as many strikes as the highest escalation threshold; older strikes can never make a
+ * difference.
+ */
+class StrikeLedger {
+    private final int ringSize;
+    private final long windowMillis;
+    private final Map<Long, AtomicLongArray> rings = new ConcurrentHashMap<>();
+
+    /**
+     * @param ringSize The most recent strikes to remember per user
+     * @param windowMillis How long strikes count for
+     */
+    StrikeLedger(int ringSize, long windowMillis) {
+        if (ringSize <= 0) {
+            throw new IllegalArgumentException("ringSize must be greater than 0");
+        }
+
+        this.ringSize = ringSize;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @param userId The snowflake of the user who tripped a filter
+     * @param now The current time, in milliseconds since the Unix epoch
+     * @return The number of strikes the user has within the window, including this one
+     */
+    int recordStrike(long userId, long now) {
+        AtomicLongArray ring = rings.get(userId);
+
+        if (ring == null) {
+            ring = rings.computeIfAbsent(userId, id -> new AtomicLongArray(ringSize + 1));
+        }
+
+        int slot = (int) (ring.getAndIncrement(0) % ringSize) + 1;
+        ring.set(slot, now);
+
+        return countStrikes(ring, now);
+    }
+
+    private int countStrikes(AtomicLongArray ring, long now) {
+        int retval = 0;
+
+        for (int i = 1; i <= ringSize; i++) {
+            long time = ring.get(i);
+
+            if (time != 0L && now - time < windowMillis) {
+                retval++;
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * Forgets users with no strikes left in the window, and copies out the rest for persistence.
+     *
+     * @param now The current time, in milliseconds since the Unix epoch
+     * @return The strike times of every user who still has any, keyed by user snowflake
+     */
+    Map<Long, long[]> prune(long now) {
+        Map<Long, long[]> retval = new HashMap<>();
+
+        // A user striking again between the check and the removal loses that strike; that's fine for this purpose
+        rings.entrySet().removeIf(entry -> countStrikes(entry.getValue(), now) == 0);
+
+        rings.forEach((userId, ring) -> {
+            long[] times = new long[ringSize];
+            for (int i = 0; i < ringSize; i++) {
+                times[i] = ring.get(i + 1);
+            }
+
+            retval.put(userId, times);
+        });
+
+        return retval;
+    }
+
+    /**
+     * Restores strikes saved by {@link #prune(long)}.  Must only be called before any strikes are recorded.
+     */
+    void restore(Map<Long, long[]> strikes) {
+        strikes.forEach((userId, times) -> {
+            // Keep the most recent strikes, in case the ring has shrunk since they were saved
+            long[] sorted = Arrays.stream(times).filter(time -> time != 0L).sorted().toArray();
+            int count = Math.min(ringSize, sorted.length);
+
+            AtomicLongArray ring = new AtomicLongArray(ringSize + 1);
+            for (int i = 0; i < count; i++) {
+                ring.set(i + 1, sorted[sorted.length - count + i]);
+            }
+
+            ring.set(0, count);
+            rings.put(userId, ring);
+        });
+    }
+}
@@ -2,7 +2,7 @@
  * TROIDSONLY/MODBOT
  * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
  *
- * Copyright (C) 2017 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
  *
  * License GPLv3+: GNU General Public License version 3 or later (at your choice):
  * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
@@ -32,22 +32,20 @@
 
 package com.troidsonly.modbot.commands.filter;
 
-import java.util.concurrent.Callable;
-import java.util.regex.Pattern;
+import java.util.HashMap;
+import java.util.Map;
 
-import org.lizardirc.beancounter.utils.InterruptibleCharSequence;
+class StrikeLedgerRepository {
+    // Keyed by user snowflake; each value holds the times of that user's recent strikes, in milliseconds since the epoch
+    private Map<Long, long[]> strikes;
 
-public class PatternMatchCallable implements Callable<Boolean> {
-    private final Pattern pattern;
-    private final InterruptibleCharSequence subject;
-
-    public PatternMatchCallable(Pattern pattern, String subject) {
-        this.pattern = pattern;
-        this.subject = new InterruptibleCharSequence(subject);
+    public static StrikeLedgerRepository empty() {
+        StrikeLedgerRepository retval = new StrikeLedgerRepository();
+        retval.strikes = new HashMap<>();
+        return retval;
     }
 
-    @Override
-    public Boolean call() {
-        return pattern.matcher(subject).find();
+    public Map<Long, long[]> getStrikes() {
+        return strikes;
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Counts how many times a filter has timed out (or run out of budget) within a sliding window, so that
+ * {@link FilterListener} can quarantine filters that keep doing so.  Safe for use by multiple threads.
+ */
+class TimeoutWindow {
+    private final long windowNanos;
+    private final Deque<Long> timeouts = new ArrayDeque<>(); // System.nanoTime() of each timeout in the window
+
+    TimeoutWindow(long windowNanos) {
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * @param now The current {@link System#nanoTime()}
+     * @return The number of timeouts within the window, including this one
+     */
+    synchronized int record(long now) {
+        timeouts.addLast(now);
+
+        while (now - timeouts.peekFirst() > windowNanos) {
+            timeouts.removeFirst();
+        }
+
+        return timeouts.size();
+    }
+
+    synchronized void clear() {
+        timeouts.clear();
+    }
+}
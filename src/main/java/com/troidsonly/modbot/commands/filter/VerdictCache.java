@@ -0,0 +1,91 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * Remembers which filters matched recently-seen message texts, so that when raid bots post the same message over and
+ * over, only the first copy has to be run through the filters.  Entries are keyed by a hash of the message text (see
+ * {@link MessageText#getContentHash()}), and expire a fixed time after being added.  Where some filters don't apply
+ * to the message's author because of their role scope, which filters were excluded forms part of the key, so authors
+ * with different roles don't share verdicts.
+ * <p>
+ * Each {@link CompiledFilterSet} has its own cache, so replacing the filter set also discards every cached verdict.
+ * Only complete verdicts should be cached: if any filter was abandoned, the message must be checked again next time.
+ */
+class VerdictCache {
+    private final Cache<HashCode, List<MessageFilter>> cache;
+
+    VerdictCache(long maximumSize, long expirySeconds) {
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expirySeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * @param excluded The filters that weren't checked because they don't apply to the message's author
+     * @return The filters that matched the same text last time, or null if there's no cached verdict
+     */
+    List<MessageFilter> get(MessageText text, BitSet excluded) {
+        return cache.getIfPresent(keyOf(text, excluded));
+    }
+
+    void put(MessageText text, BitSet excluded, List<MessageFilter> matches) {
+        cache.put(keyOf(text, excluded), ImmutableList.copyOf(matches));
+    }
+
+    private static HashCode keyOf(MessageText text, BitSet excluded) {
+        if (excluded.isEmpty()) {
+            return text.getContentHash();
+        }
+
+        return Hashing.combineOrdered(Arrays.asList(text.getContentHash(), Hashing.murmur3_128().hashBytes(excluded.toByteArray())));
+    }
+
+    CacheStats stats() {
+        return cache.stats();
+    }
+}
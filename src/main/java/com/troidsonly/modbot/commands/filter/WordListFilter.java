@@ -0,0 +1,119 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A filter that matches messages containing any of a list of words, for the common case of a blocklist that would
+ * otherwise be written as a pile of {@code /\bword\b/in} regexes.  Word lists are specified as
+ * {@code words:first,second,third*}; a word ending in {@code *} matches any word starting with it, so {@code spam*}
+ * also catches "spammer" and "spamming".
+ * <p>
+ * Words are compared against the normalized view of messages (see {@link MessageNormalizer}), and are normalized the
+ * same way themselves, so case, accents and lookalike characters make no difference.  Rather than being run one by
+ * one, every word list in a {@link CompiledFilterSet} is merged into a single {@link WordListIndex}, so checking a
+ * message costs a hash lookup per word in the message no matter how many words are listed.
+ */
+class WordListFilter extends MessageFilter {
+    static final String SPEC_PREFIX = "words:";
+
+    private String words;
+
+    private transient List<String> wholeWords = null;
+    private transient List<String> prefixes = null;
+
+    public WordListFilter(String words, String creatorUid, long creationTime, Long expiry, FilterAction action, String comment) {
+        super(creatorUid, creationTime, expiry, action, comment);
+        this.words = Objects.requireNonNull(words);
+
+        parseWords();
+    }
+
+    @Override
+    public String getSpec() {
+        return words;
+    }
+
+    /**
+     * @return The normalized words this filter matches exactly
+     */
+    public List<String> getWholeWords() {
+        if (wholeWords == null) {
+            parseWords();
+        }
+
+        return wholeWords;
+    }
+
+    /**
+     * @return The normalized prefixes of words this filter matches
+     */
+    public List<String> getPrefixes() {
+        if (prefixes == null) {
+            parseWords();
+        }
+
+        return prefixes;
+    }
+
+    private void parseWords() {
+        if (!isWordListSpec(words)) {
+            throw new IllegalArgumentException("Word lists must start with " + SPEC_PREFIX);
+        }
+
+        List<String> newWholeWords = new ArrayList<>();
+        List<String> newPrefixes = new ArrayList<>();
+
+        for (String word : words.substring(SPEC_PREFIX.length()).split(",")) {
+            boolean prefix = word.endsWith("*");
+            String normalizedWord = MessageNormalizer.normalize(prefix ? word.substring(0, word.length() - 1) : word);
+
+            if (!WordListIndex.isWord(normalizedWord)) {
+                throw new IllegalArgumentException("'" + word + "' is not a single word");
+            }
+
+            (prefix ? newPrefixes : newWholeWords).add(normalizedWord);
+        }
+
+        wholeWords = Collections.unmodifiableList(newWholeWords);
+        prefixes = Collections.unmodifiableList(newPrefixes);
+    }
+
+    public static boolean isWordListSpec(String spec) {
+        return spec.startsWith(SPEC_PREFIX);
+    }
+}
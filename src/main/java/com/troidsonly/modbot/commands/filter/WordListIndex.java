@@ -0,0 +1,134 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.filter;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Every word list in a {@link CompiledFilterSet}, merged into hash tables from each word (or word prefix) to the
+ * filters listing it.  A message is split into words once, and each word is looked up directly, so the cost of
+ * checking a message depends only on its length rather than on how many words are listed.
+ */
+class WordListIndex {
+    private final Map<String, BitSet> wholeWords = new HashMap<>();
+    private final Map<String, BitSet> prefixes = new HashMap<>();
+    private final int[] prefixLengths;
+
+    /**
+     * @param filters The filters of every kind in the set
+     * @param included Which of the filters are word lists; the others will never be reported as matches
+     */
+    WordListIndex(List<MessageFilter> filters, BitSet included) {
+        TreeSet<Integer> lengths = new TreeSet<>();
+
+        for (int i = included.nextSetBit(0); i >= 0; i = included.nextSetBit(i + 1)) {
+            WordListFilter filter = (WordListFilter) filters.get(i);
+
+            for (String word : filter.getWholeWords()) {
+                wholeWords.computeIfAbsent(word, k -> new BitSet()).set(i);
+            }
+
+            for (String prefix : filter.getPrefixes()) {
+                prefixes.computeIfAbsent(prefix, k -> new BitSet()).set(i);
+                lengths.add(prefix.length());
+            }
+        }
+
+        prefixLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param normalizedText The normalized view of a message
+     * @return The indices of the word lists with at least one word in the message
+     */
+    BitSet findMatches(CharSequence normalizedText) {
+        BitSet retval = new BitSet();
+
+        if (wholeWords.isEmpty() && prefixes.isEmpty()) {
+            return retval;
+        }
+
+        int length = normalizedText.length();
+        int start = 0;
+
+        while (start < length) {
+            while (start < length && !isWordCodePoint(Character.codePointAt(normalizedText, start))) {
+                start += Character.charCount(Character.codePointAt(normalizedText, start));
+            }
+
+            int end = start;
+            while (end < length && isWordCodePoint(Character.codePointAt(normalizedText, end))) {
+                end += Character.charCount(Character.codePointAt(normalizedText, end));
+            }
+
+            if (end > start) {
+                String word = normalizedText.subSequence(start, end).toString();
+
+                BitSet matches = wholeWords.get(word);
+                if (matches != null) {
+                    retval.or(matches);
+                }
+
+                for (int prefixLength : prefixLengths) {
+                    if (prefixLength > word.length()) {
+                        break;
+                    }
+
+                    matches = prefixes.get(word.substring(0, prefixLength));
+                    if (matches != null) {
+                        retval.or(matches);
+                    }
+                }
+            }
+
+            start = end;
+        }
+
+        return retval;
+    }
+
+    /**
+     * @return Whether the given text is a single word, as messages are split into words by this class
+     */
+    static boolean isWord(String text) {
+        return !text.isEmpty() && text.codePoints().allMatch(WordListIndex::isWordCodePoint);
+    }
+
+    private static boolean isWordCodePoint(int codePoint) {
+        return Character.isLetterOrDigit(codePoint);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.log;
+
+import java.util.List;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.User;
+
+import com.troidsonly.modbot.utils.Miscellaneous;
+
+/**
+ * The parts of a {@link Message} that {@link MessageCache} keeps around.  A JDA message holds on to its author, member,
+ * channel, guild, embeds, reactions and so on, which adds up over thousands of cached messages; this keeps only the
+ * IDs, the text, and the author's name and avatar as they'll appear in the log, rendered once when the message is
+ * cached.  The author strings are interned, since the same few people tend to post most of the messages.
+ */
+public final class CachedMessage {
+    private static final String[] NO_ATTACHMENTS = new String[0];
+    private static final Interner<String> AUTHOR_STRINGS = Interners.newWeakInterner();
+
+    private final long messageId;
+    private final long authorId;
+    private final long channelId;
+    private final long creationTime;
+    private final String content;
+    // Null if the same as content, which it usually is
+    private final String displayContent;
+    private final String[] attachmentUrls;
+    private final String authorName;
+    private final String authorShortName;
+    private final String authorAvatarUrl;
+
+    CachedMessage(long messageId, long authorId, long channelId, long creationTime, String content,
+                  String displayContent, String[] attachmentUrls, String authorName, String authorShortName,
+                  String authorAvatarUrl) {
+        this.messageId = messageId;
+        this.authorId = authorId;
+        this.channelId = channelId;
+        this.creationTime = creationTime;
+        this.content = content;
+        this.displayContent = displayContent;
+        this.attachmentUrls = attachmentUrls;
+        this.authorName = AUTHOR_STRINGS.intern(authorName);
+        this.authorShortName = AUTHOR_STRINGS.intern(authorShortName);
+        this.authorAvatarUrl = authorAvatarUrl == null ? null : AUTHOR_STRINGS.intern(authorAvatarUrl);
+    }
+
+    public static CachedMessage from(Message message) {
+        User author = message.getAuthor();
+        Member member = message.getMember();
+
+        String content = message.getContentRaw();
+        String displayContent = message.getContentDisplay();
+
+        List<Message.Attachment> attachments = message.getAttachments();
+        String[] attachmentUrls = attachments.isEmpty() ? NO_ATTACHMENTS : new String[attachments.size()];
+
+        for (int i = 0; i < attachmentUrls.length; i++) {
+            attachmentUrls[i] = attachments.get(i).getUrl();
+        }
+
+        String authorName;
+        String authorAvatarUrl;
+
+        if (member != null) {
+            authorName = Miscellaneous.qualifyName(member);
+            authorAvatarUrl = member.getUser().getAvatarUrl();
+        } else {
+            authorName = Miscellaneous.qualifyName(author);
+            authorAvatarUrl = author.getAvatarUrl();
+        }
+
+        return new CachedMessage(message.getIdLong(), author.getIdLong(), message.getTextChannel().getIdLong(),
+            message.getTimeCreated().toInstant().toEpochMilli(), content,
+            displayContent.equals(content) ? null : displayContent, attachmentUrls,
+            authorName, Miscellaneous.qualifyName(author, false), authorAvatarUrl);
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public long getAuthorId() {
+        return authorId;
+    }
+
+    public long getChannelId() {
+        return channelId;
+    }
+
+    /**
+     * @return When the message was sent, in milliseconds since the Unix epoch
+     */
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * @return The message text with mentions rendered as names, as a client would show it
+     */
+    public String getDisplayContent() {
+        return displayContent == null ? content : displayContent;
+    }
+
+    public String[] getAttachmentUrls() {
+        return attachmentUrls.clone();
+    }
+
+    /**
+     * @return The message text followed by the URLs of any attachments, as {@link Miscellaneous#getFullMessage} would
+     * return for the original message
+     */
+    public String getFullContent() {
+        if (attachmentUrls.length == 0) {
+            return content;
+        }
+
+        StringBuilder output = new StringBuilder(content);
+
+        for (String url : attachmentUrls) {
+            output.append(" ")
+                .append(url);
+        }
+
+        return output.toString();
+    }
+
+    /**
+     * @return The author's name, nickname and UID, as rendered by {@link Miscellaneous#qualifyName(Member)}
+     */
+    public String getAuthorName() {
+        return authorName;
+    }
+
+    /**
+     * @return The author's name without the UID
+     */
+    public String getAuthorShortName() {
+        return authorShortName;
+    }
+
+    public String getAuthorAvatarUrl() {
+        return authorAvatarUrl;
+    }
+
+    public String getChannelMention() {
+        return "<#" + channelId + ">";
+    }
+
+    /**
+     * @return Roughly how many bytes of heap this record takes up, assuming a 64-bit JVM with compressed references.
+     * The author strings aren't counted, since they're shared with the author's other messages.
+     */
+    public int getEstimatedSize() {
+        // Header, four longs and six references
+        int size = 72 + estimateSize(content) + 16 + 4 * attachmentUrls.length;
+
+        if (displayContent != null) {
+            size += estimateSize(displayContent);
+        }
+
+        for (String url : attachmentUrls) {
+            size += estimateSize(url);
+        }
+
+        return size;
+    }
+
+    private static int estimateSize(String string) {
+        // The String itself, and its char[]
+        return 24 + 16 + 2 * string.length();
+    }
+}
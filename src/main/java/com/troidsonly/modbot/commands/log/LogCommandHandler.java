@@ -35,9 +35,12 @@ package com.troidsonly.modbot.commands.log;
 import java.awt.Color;
 import java.time.Instant;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import com.google.common.collect.ImmutableSet;
 import net.dv8tion.jda.api.EmbedBuilder;
@@ -62,8 +65,12 @@ class LogCommandHandler implements CommandHandler {
     private static final String CFGLOG_SCMD_ADD_FILTER = "addfilter";
     private static final String CFGLOG_SCMD_REMOVE_FILTER = "removefilter";
     private static final String CFGLOG_SCMD_LIST_FILTERS = "listfilters";
+    private static final String CFGLOG_SCMD_CACHE_STATS = "cachestats";
     private static final Set<String> CFGLOG_SCMDS = ImmutableSet.of(CFGLOG_SCMD_ENABLE, CFGLOG_SCMD_DISABLE, CFGLOG_SCMD_SETTARGET,
-        CFGLOG_SCMD_SHOWTARGET, CFGLOG_SCMD_ADD_FILTER, CFGLOG_SCMD_REMOVE_FILTER, CFGLOG_SCMD_LIST_FILTERS);
+        CFGLOG_SCMD_SHOWTARGET, CFGLOG_SCMD_ADD_FILTER, CFGLOG_SCMD_REMOVE_FILTER, CFGLOG_SCMD_LIST_FILTERS,
+        CFGLOG_SCMD_CACHE_STATS);
+
+    private static final int MAX_CACHE_STATS_CHANNELS = 15;
 
     private static final String FILTER_TYPE_USER = "user";
     private static final String FILTER_TYPE_CHANNEL = "channel";
@@ -378,6 +385,47 @@ class LogCommandHandler implements CommandHandler {
 
                                 event.getMessage().getChannel().sendMessage(response.toString()).complete();
                                 break;
+                            case CFGLOG_SCMD_CACHE_STATS:
+                                MessageCache messageCache = parent.getMessageCache();
+
+                                if (messageCache == null) {
+                                    Miscellaneous.respond(event, "The message cache isn't running, since logging is disabled.");
+                                    break;
+                                }
+
+                                Map<Long, MessageCache.ChannelStats> channelStats = messageCache.getChannelStats();
+                                StringBuilder statsOutput = new StringBuilder("Message cache is using ")
+                                    .append(messageCache.getTotalBytes() / 1024L).append(" KiB of its ")
+                                    .append(messageCache.getBudgetBytes() / 1024L).append(" KiB budget, and has evicted ")
+                                    .append(messageCache.getEvictions()).append(" messages to stay within it.  The message journal's ")
+                                    .append("indexes are using a further ").append(messageCache.getJournalIndexBytes() / 1024L).append(" KiB.\n")
+                                    .append("Largest channels:\n```\n");
+
+                                List<Map.Entry<Long, MessageCache.ChannelStats>> largest = channelStats.entrySet().stream()
+                                    .sorted(Comparator.comparingLong((Map.Entry<Long, MessageCache.ChannelStats> entry) -> entry.getValue().getBytes()).reversed())
+                                    .limit(MAX_CACHE_STATS_CHANNELS)
+                                    .collect(Collectors.toList());
+
+                                for (Map.Entry<Long, MessageCache.ChannelStats> entry : largest) {
+                                    TextChannel channel = event.getGuild().getTextChannelById(entry.getKey());
+                                    MessageCache.ChannelStats stats = entry.getValue();
+
+                                    statsOutput.append('#').append(channel == null ? entry.getKey().toString() : channel.getName())
+                                        .append(": ").append(stats.getMessages()).append(" messages, ")
+                                        .append(stats.getBytes() / 1024L).append(" KiB, oldest ")
+                                        .append(TimeUnit.MILLISECONDS.toMinutes(stats.getOldestAgeMillis())).append(" min ago, ")
+                                        .append(String.format("%.1f", stats.getRate())).append(" recent messages, ")
+                                        .append(stats.getEvictions()).append(" evicted\n");
+                                }
+
+                                statsOutput.append("```");
+
+                                if (channelStats.size() > largest.size()) {
+                                    statsOutput.append("\n...and ").append(channelStats.size() - largest.size()).append(" more channels.");
+                                }
+
+                                event.getMessage().getChannel().sendMessage(statsOutput.toString()).complete();
+                                break;
                         }
                     } else {
                         Miscellaneous.respond(event, "Error: Too few arguments.  Syntax: `" + CMD_CFGLOG + " <" +
@@ -82,13 +82,16 @@ public class LogListener extends ListenerAdapter {
     private final LogCommandHandler commandHandler;
     private final LoggerConfig config;
     private final AccessControl acl;
+    private final MessageCacheSettings messageCacheSettings;
 
     private JDA jda = null;
     private MessageCache messageCache = null;
+    private MessageJournal messageJournal = null;
 
-    public LogListener(PersistenceWrapper<?> wrapper, AccessControl acl) {
+    public LogListener(PersistenceWrapper<?> wrapper, AccessControl acl, MessageCacheSettings messageCacheSettings) {
         pm = wrapper.getPersistenceManager("LogListener", LoggerConfig.class);
         this.acl = acl;
+        this.messageCacheSettings = messageCacheSettings;
 
         commandHandler = new LogCommandHandler(this);
         config = pm.get().orElseGet(LoggerConfig::empty);
@@ -124,7 +127,18 @@ public class LogListener extends ListenerAdapter {
         config.setEnabled(true);
         sync();
         TextChannel primaryLogChannel = jda.getTextChannelById(config.getPrimaryLogChannelId());
-        messageCache = new MessageCache(primaryLogChannel);
+
+        if (messageJournal == null && messageCacheSettings.isJournalEnabled()) {
+            try {
+                messageJournal = new MessageJournal(messageCacheSettings.getJournalDirectory(),
+                    messageCacheSettings.getJournalSegmentBytes(), messageCacheSettings.getJournalRetentionMillis());
+            } catch (IOException e) {
+                primaryLogChannel.sendMessage("Failed to open the message journal: `" + e.toString() +
+                    "`; continuing without it.").queue();
+            }
+        }
+
+        messageCache = new MessageCache(primaryLogChannel, messageCacheSettings, messageJournal);
         primaryLogChannel.sendMessage("Logging enabled.").queue();
     }
 
@@ -210,25 +224,28 @@ public class LogListener extends ListenerAdapter {
         if (messageCache != null) {
             EmbedBuilder embedBuilder = new EmbedBuilder();
             Message newMessage = event.getMessage();
-            Optional<Message> oldMessage = messageCache.getMessageById(event.getMessageId(), event.getChannel());
+            String newText = Miscellaneous.getFullMessage(newMessage);
+            Optional<CachedMessage> oldMessage = messageCache.getMessageById(event.getMessageIdLong(), event.getChannel());
 
             embedBuilder.setTitle("Edited message in #" + event.getChannel().getName());
             embedBuilder.setAuthor(Miscellaneous.qualifyName(event.getMember()), null, event.getMember().getUser().getAvatarUrl());
 
             if (oldMessage.isPresent()) {
-                if (Miscellaneous.getFullMessage(oldMessage.get()).equals(Miscellaneous.getFullMessage(newMessage))) {
+                String oldText = oldMessage.get().getFullContent();
+
+                if (oldText.equals(newText)) {
                     // Texts are the same - we can ignore this, but still update the message cache.
                     messageCache.updateMessage(newMessage);
                     return;
                 }
 
-                embedBuilder.addField("Old Message", Miscellaneous.getFullMessage(oldMessage.get()), false);
+                embedBuilder.addField("Old Message", oldText, false);
             } else {
                 embedBuilder.addField("Old message not available", "Could not find the old message text in the message " +
                     "cache; it was probably very old", false);
             }
 
-            embedBuilder.addField("New Message", Miscellaneous.getFullMessage(newMessage), false);
+            embedBuilder.addField("New Message", newText, false);
             embedBuilder.addField("Message ID", newMessage.getId(), false);
             embedBuilder.setColor(new Color(0x55AAFF));
             embedBuilder.setFooter(getClass().getSimpleName() + " | " + Miscellaneous.unixEpochToRfc1123DateTimeString(Instant.now().getEpochSecond()), null);
@@ -243,19 +260,15 @@ public class LogListener extends ListenerAdapter {
     public void onGuildMessageDelete(GuildMessageDeleteEvent event) {
         if (messageCache != null) {
             EmbedBuilder embedBuilder = new EmbedBuilder();
-            Optional<Message> oldMessage = messageCache.getMessageById(event.getMessageId(), event.getChannel());
+            Optional<CachedMessage> oldMessage = messageCache.getMessageById(event.getMessageIdLong(), event.getChannel());
             Member member;
 
             embedBuilder.setTitle("Deleted message in #" + event.getChannel().getName());
 
             if (oldMessage.isPresent()) {
-                embedBuilder.setDescription(Miscellaneous.getFullMessage(oldMessage.get()));
-                member = oldMessage.get().getMember();
-                if (member != null) {
-                    embedBuilder.setAuthor(Miscellaneous.qualifyName(member), null, member.getUser().getAvatarUrl());
-                } else {
-                    embedBuilder.setAuthor(Miscellaneous.qualifyName(oldMessage.get().getAuthor()), null, oldMessage.get().getAuthor().getAvatarUrl());
-                }
+                embedBuilder.setDescription(oldMessage.get().getFullContent());
+                embedBuilder.setAuthor(oldMessage.get().getAuthorName(), null, oldMessage.get().getAuthorAvatarUrl());
+                member = event.getGuild().getMemberById(oldMessage.get().getAuthorId());
             } else {
                 embedBuilder.setDescription("Unfortunately, I could not find the deleted message in my MessageCache, so I can't " +
                     "show any information about it.  This probably means it was old.");
@@ -461,8 +474,7 @@ public class LogListener extends ListenerAdapter {
             .map(messageId -> messageCache.getMessageById(messageId, event.getChannel()))
             .filter(Optional::isPresent)
             .map(Optional::get)
-            .map(Message::getAuthor)
-            .map(Miscellaneous::qualifyName)
+            .map(CachedMessage::getAuthorName)
             .collect(Collectors.toList());
 
         embedBuilder.setTitle("Message bulk delete logged in channel #" + event.getChannel().getName());
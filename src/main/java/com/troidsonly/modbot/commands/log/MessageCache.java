@@ -32,43 +32,133 @@
 
 package com.troidsonly.modbot.commands.log;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.EvictingQueue;
+import com.google.common.collect.Lists;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.TextChannel;
 
-@SuppressWarnings("UnstableApiUsage")
+/**
+ * Remembers the most recent messages in each channel, so that edits and deletions can be logged along with what the
+ * message used to say.  Each channel's messages are kept in insertion order, keyed by message ID, so that looking up,
+ * replacing and evicting a message all take constant time.  Messages are stored as {@link CachedMessage}s rather than
+ * JDA's own objects, which keep far more than the log needs.
+ * <p>
+ * Rather than a fixed number of messages per channel, all channels share a budget of bytes (see
+ * {@link MessageCacheSettings}).  Each channel is entitled to a share of the budget in proportion to its weight, which
+ * is one plus the number of messages posted in it lately (an exponentially-decaying count, so a channel that goes quiet
+ * gradually loses its claim).  Once the budget is exceeded, the channel holding the most bytes for its weight, and so
+ * the furthest over its share, loses its oldest message.  Busy channels therefore get most of the space, and keep more
+ * history than quiet ones, while a quiet channel's history is only evicted once it's taking more than its small share.
+ * Every channel keeps at least its most recent few messages regardless.  Finding the channel to evict from takes time
+ * proportional to the number of channels, which in a single guild is small.
+ * <p>
+ * If a {@link MessageJournal} is given, every message added to the cache is also appended to it, lookups that miss the
+ * cache fall through to it, and the cache is filled from it at startup.  Only the messages sent since the journal's
+ * newest message in each channel are then fetched from Discord, rather than each channel's latest messages.
+ * <p>
+ * The cache is written from JDA's event threads and read from command and filter threads at the same time, so each
+ * channel's messages are guarded by their own lock: activity in one channel never waits on another, and readers get a
+ * copy taken under the lock, which they can iterate at leisure.  Eviction only ever holds one channel's lock at a
+ * time.
+ */
 public class MessageCache {
-    private static final int QUEUE_SIZE = 1000;
+    private static final int HISTORY_TO_RETRIEVE = 100;
+    // How many pages of HISTORY_TO_RETRIEVE messages to fetch, per channel, to catch up with what was sent since the
+    // journal's newest message; if there are more, the channel's latest messages are fetched instead
+    private static final int MAX_CATCH_UP_PAGES = 10;
+    // The LinkedHashMap entry, its Long key, and the Entry wrapper
+    static final int ENTRY_OVERHEAD = 96;
+    // How quickly a channel's recent activity is forgotten
+    private static final long RATE_HALF_LIFE_MILLIS = TimeUnit.MINUTES.toMillis(10L);
+
+    private final TextChannel primaryLoggingChannel;
+    private final MessageCacheSettings settings;
+    private volatile MessageJournal journal;
+    // Keyed by channel ID
+    private final LoadingCache<Long, ChannelMessages> messageCache;
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
 
-    private final LoadingCache<TextChannel, Queue<Message>> messageCache;
+    /**
+     * @param journal The journal to keep messages in and fill the cache from, or null to only keep messages in memory
+     */
+    public MessageCache(TextChannel primaryLoggingChannel, MessageCacheSettings settings, MessageJournal journal) {
+        this.primaryLoggingChannel = primaryLoggingChannel;
+        this.settings = settings;
+        this.journal = journal;
 
-    public MessageCache(TextChannel primaryLoggingChannel) {
-        primaryLoggingChannel.sendMessage("Initializing message cache; " + QUEUE_SIZE +
-            " messages per channel will be saved in the EvictingQueue").queue();
+        primaryLoggingChannel.sendMessage("Initializing message cache; up to " + settings.getBudgetBytes() / 1024L +
+            " KiB of messages will be saved across all channels").queue();
 
         messageCache = CacheBuilder.newBuilder()
-            .build(CacheLoader.from(() -> EvictingQueue.create(QUEUE_SIZE)));
+            .build(CacheLoader.from(ChannelMessages::new));
+
+        // Channel ID to the ID of the newest message the journal had for it
+        Map<Long, Long> newestJournaled = new HashMap<>();
+
+        if (journal != null) {
+            // The journal's records are more compact than the cache's, so this reads a bit more than will fit
+            journal.replay(settings.getBudgetBytes(), (message, time) -> {
+                put(message, time, true);
+                newestJournaled.merge(message.getChannelId(), message.getMessageId(), Math::max);
+            });
+            primaryLoggingChannel.sendMessage("Filled the message cache with " + totalBytes.get() / 1024L +
+                " KiB of messages from the message journal").queue();
+        }
 
         primaryLoggingChannel.sendMessage("Enumerating and requesting history for all text channels...").queue();
         List<TextChannel> channels = primaryLoggingChannel.getGuild().getTextChannels();
 
-        final int messagesToRetrieve = Math.min(QUEUE_SIZE, 100);
-
         for (TextChannel channel : channels) {
             try {
-                List<Message> messages = new WorkaroundMessageHistory(channel)
-                        .retrievePast(messagesToRetrieve)
-                        .complete();
-                messageCache.getUnchecked(channel).addAll(messages);
-                primaryLoggingChannel.sendMessage("Retrieved " + messages.size() + " messages for #" +
+                Long newestId = newestJournaled.get(channel.getIdLong());
+                int retrieved = 0;
+                boolean caughtUp = false;
+
+                if (newestId != null) {
+                    // Only fetch what was sent while the bot was away, unless that's too much to bother with
+                    for (int page = 0; page < MAX_CATCH_UP_PAGES; page++) {
+                        List<Message> messages = new WorkaroundMessageHistory(channel)
+                                .retrieveAfter(newestId, HISTORY_TO_RETRIEVE)
+                                .complete();
+                        messages.forEach(this::addMessage);
+                        retrieved += messages.size();
+
+                        if (messages.size() < HISTORY_TO_RETRIEVE) {
+                            caughtUp = true;
+                            break;
+                        }
+
+                        newestId = messages.get(messages.size() - 1).getIdLong();
+                    }
+                }
+
+                if (!caughtUp) {
+                    List<Message> messages = new WorkaroundMessageHistory(channel)
+                            .retrievePast(HISTORY_TO_RETRIEVE)
+                            .complete();
+                    // History comes newest first, but messages must be added oldest first so the oldest are evicted first
+                    Lists.reverse(messages).forEach(this::addMessage);
+                    retrieved += messages.size();
+                }
+
+                primaryLoggingChannel.sendMessage("Retrieved " + retrieved + " messages for #" +
                     channel.getName() + " and added them to the message cache").queue();
             } catch (Exception e) {
                 primaryLoggingChannel.sendMessage("Failed to retrieve history for #" + channel.getName() +
@@ -80,21 +170,294 @@ public class MessageCache {
     }
 
     public void addMessage(Message message) {
-        messageCache.getUnchecked(message.getTextChannel()).add(message);
+        CachedMessage cachedMessage = CachedMessage.from(message);
+        // Messages from the initial history count as arriving when they were posted, not now
+        journal(cachedMessage, cachedMessage.getCreationTime());
+        put(cachedMessage, cachedMessage.getCreationTime(), true);
     }
 
     public void updateMessage(Message message) {
-        messageCache.getUnchecked(message.getTextChannel()).remove(message); // This way we only keep the most recent version of the message around
-        addMessage(message);
+        CachedMessage cachedMessage = CachedMessage.from(message);
+        long now = System.currentTimeMillis();
+
+        // This way we only keep the most recent version of the message around, and it counts as the newest message
+        journal(cachedMessage, now);
+        put(cachedMessage, now, false);
+    }
+
+    private void journal(CachedMessage cachedMessage, long time) {
+        MessageJournal journal = this.journal;
+
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.append(cachedMessage, time);
+        } catch (IOException e) {
+            this.journal = null;
+            primaryLoggingChannel.sendMessage("Failed to write to the message journal: `" + e.toString() +
+                "`; messages will not be journaled until logging is next enabled.").queue();
+        }
+    }
+
+    private void put(CachedMessage cachedMessage, long time, boolean isNew) {
+        ChannelMessages channel = messageCache.getUnchecked(cachedMessage.getChannelId());
+        Entry entry = new Entry(cachedMessage, time);
+        long delta = entry.size;
+
+        synchronized (channel) {
+            Entry oldEntry = channel.messages.remove(cachedMessage.getMessageId());
+
+            if (oldEntry != null) {
+                delta -= oldEntry.size;
+            }
+
+            channel.messages.put(cachedMessage.getMessageId(), entry);
+            channel.bytes += delta;
+
+            if (isNew && oldEntry == null) {
+                channel.recordArrival(time);
+            }
+        }
+
+        if (totalBytes.addAndGet(delta) > settings.getBudgetBytes()) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        // One thread evicting at a time is enough; any others can get on with their events.  The budget is checked
+        // again after the lock is released, in case another thread added a message and gave up on the lock just before.
+        while (totalBytes.get() > settings.getBudgetBytes() && evictionLock.tryLock()) {
+            try {
+                while (totalBytes.get() > settings.getBudgetBytes()) {
+                    if (!evictOne()) {
+                        // Every channel is down to its minimum
+                        return;
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return False if no channel had a message to spare
+     */
+    private boolean evictOne() {
+        long now = System.currentTimeMillis();
+        ChannelMessages victim = null;
+        double victimScore = 0.0;
+
+        for (ChannelMessages channel : messageCache.asMap().values()) {
+            double score;
+
+            synchronized (channel) {
+                score = channel.getEvictionScore(now, settings.getChannelMinimum());
+            }
+
+            if (score > victimScore) {
+                victim = channel;
+                victimScore = score;
+            }
+        }
+
+        if (victim == null) {
+            return false;
+        }
+
+        synchronized (victim) {
+            // Only eviction shrinks a channel, and only one thread evicts, so it still has a message to spare
+            Iterator<Entry> iterator = victim.messages.values().iterator();
+            Entry evicted = iterator.next();
+            iterator.remove();
+            victim.bytes -= evicted.size;
+            victim.evictions++;
+            totalBytes.addAndGet(-evicted.size);
+        }
+
+        evictions.incrementAndGet();
+        return true;
     }
 
-    public Optional<Message> getMessageById(String messageId, TextChannel channel) {
-        return messageCache.getUnchecked(channel).stream()
-            .filter(message -> message.getId().equals(messageId))
-            .findFirst();
+    public Optional<CachedMessage> getMessageById(String messageId, TextChannel channel) {
+        return getMessageById(Long.parseLong(messageId), channel);
     }
 
-    public List<Message> getMessagesByChannel(TextChannel channel) {
-        return new ArrayList<>(messageCache.getUnchecked(channel));
+    public Optional<CachedMessage> getMessageById(long messageId, TextChannel channel) {
+        ChannelMessages channelMessages = messageCache.getUnchecked(channel.getIdLong());
+
+        synchronized (channelMessages) {
+            Entry entry = channelMessages.messages.get(messageId);
+
+            if (entry != null) {
+                return Optional.of(entry.message);
+            }
+        }
+
+        MessageJournal journal = this.journal;
+
+        if (journal == null) {
+            return Optional.empty();
+        }
+
+        return journal.get(messageId)
+            .filter(message -> message.getChannelId() == channel.getIdLong());
+    }
+
+    /**
+     * @return A snapshot of the channel's cached messages, oldest first, unaffected by later changes to the cache
+     */
+    public List<CachedMessage> getMessagesByChannel(TextChannel channel) {
+        ChannelMessages channelMessages = messageCache.getUnchecked(channel.getIdLong());
+
+        synchronized (channelMessages) {
+            List<CachedMessage> retval = new ArrayList<>(channelMessages.messages.size());
+            channelMessages.messages.values().forEach(entry -> retval.add(entry.message));
+            return retval;
+        }
+    }
+
+    public long getBudgetBytes() {
+        return settings.getBudgetBytes();
+    }
+
+    /**
+     * @return Roughly how many bytes the cached messages of all channels take up
+     */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * @return Roughly how many bytes the message journal's indexes take up, or 0 if there's no journal.  This is on top
+     * of the budget, and grows with the journal's retention period rather than with the cache.
+     */
+    public long getJournalIndexBytes() {
+        MessageJournal journal = this.journal;
+        return journal == null ? 0L : journal.getIndexBytes();
+    }
+
+    /**
+     * @return How many messages have been evicted to keep within budget since the cache was created
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return A snapshot of how much of the cache each channel occupies, keyed by channel ID
+     */
+    public Map<Long, ChannelStats> getChannelStats() {
+        long now = System.currentTimeMillis();
+        Map<Long, ChannelStats> retval = new HashMap<>();
+
+        messageCache.asMap().forEach((channelId, channel) -> {
+            synchronized (channel) {
+                long oldest = channel.messages.isEmpty() ? now : channel.messages.values().iterator().next().time;
+                retval.put(channelId, new ChannelStats(channel.messages.size(), channel.bytes, channel.evictions,
+                    channel.getRate(now), now - oldest));
+            }
+        });
+
+        return Collections.unmodifiableMap(retval);
+    }
+
+    public static class ChannelStats {
+        private final int messages;
+        private final long bytes;
+        private final long evictions;
+        private final double rate;
+        private final long oldestAgeMillis;
+
+        private ChannelStats(int messages, long bytes, long evictions, double rate, long oldestAgeMillis) {
+            this.messages = messages;
+            this.bytes = bytes;
+            this.evictions = evictions;
+            this.rate = rate;
+            this.oldestAgeMillis = oldestAgeMillis;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return Roughly how many messages were posted in the channel over the last ten minutes or so
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        /**
+         * @return How long ago the oldest cached message in the channel was posted or last edited
+         */
+        public long getOldestAgeMillis() {
+            return oldestAgeMillis;
+        }
+    }
+
+    private static class Entry {
+        private final CachedMessage message;
+        // When the message was posted, or last edited
+        private final long time;
+        private final int size;
+
+        private Entry(CachedMessage message, long time) {
+            this.message = message;
+            this.time = time;
+            size = message.getEstimatedSize() + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * One channel's messages and bookkeeping.  Everything here must only be touched while synchronized on the instance.
+     */
+    private static class ChannelMessages {
+        private final LinkedHashMap<Long, Entry> messages = new LinkedHashMap<>();
+        private long bytes = 0L;
+        private long evictions = 0L;
+        // Exponentially-decaying count of arrivals, as of rateTime
+        private double rate = 0.0;
+        private long rateTime = 0L;
+
+        private void recordArrival(long time) {
+            if (time >= rateTime) {
+                rate = decay(rate, time - rateTime) + 1.0;
+                rateTime = time;
+            } else {
+                rate += decay(1.0, rateTime - time);
+            }
+        }
+
+        private double getRate(long now) {
+            return now > rateTime ? decay(rate, now - rateTime) : rate;
+        }
+
+        /**
+         * @return How far this channel is over its share of the budget, as bytes held per unit of weight; 0 if it
+         * mustn't lose any messages
+         */
+        private double getEvictionScore(long now, int channelMinimum) {
+            if (messages.size() <= channelMinimum || messages.isEmpty()) {
+                return 0.0;
+            }
+
+            return bytes / (1.0 + getRate(now));
+        }
+
+        private static double decay(double value, long elapsedMillis) {
+            return value * Math.pow(0.5, (double) elapsedMillis / RATE_HALF_LIFE_MILLIS);
+        }
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.log;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup settings for the message cache, read from the bot's configuration file.
+ */
+public class MessageCacheSettings {
+    private final long budgetBytes;
+    private final int channelMinimum;
+    private final String journalDirectory;
+    private final int journalSegmentBytes;
+    private final long journalRetentionHours;
+
+    public MessageCacheSettings(long budgetBytes, int channelMinimum, String journalDirectory, int journalSegmentBytes,
+                                long journalRetentionHours) {
+        if (budgetBytes <= 0L) {
+            throw new IllegalArgumentException("budgetBytes must be greater than 0");
+        }
+
+        if (channelMinimum < 0) {
+            throw new IllegalArgumentException("channelMinimum must be 0 or greater");
+        }
+
+        if (journalSegmentBytes < 1024 * 1024) {
+            throw new IllegalArgumentException("journalSegmentBytes must be at least 1048576");
+        }
+
+        if (journalRetentionHours <= 0L) {
+            throw new IllegalArgumentException("journalRetentionHours must be greater than 0");
+        }
+
+        this.budgetBytes = budgetBytes;
+        this.channelMinimum = channelMinimum;
+        this.journalDirectory = Objects.requireNonNull(journalDirectory).trim();
+        this.journalSegmentBytes = journalSegmentBytes;
+        this.journalRetentionHours = journalRetentionHours;
+    }
+
+    public static MessageCacheSettings fromProperties(Properties properties) {
+        return new MessageCacheSettings(
+            Long.parseLong(properties.getProperty("messageCacheBudgetBytes", "33554432")),
+            Integer.parseInt(properties.getProperty("messageCacheChannelMinimum", "50")),
+            properties.getProperty("messageJournalDirectory", "messageJournal"),
+            Integer.parseInt(properties.getProperty("messageJournalSegmentBytes", "8388608")),
+            Long.parseLong(properties.getProperty("messageJournalRetentionHours", "168"))
+        );
+    }
+
+    /**
+     * @return Roughly how much memory, in bytes, the cached messages of all channels together may take up
+     */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * @return How many of its most recent messages each channel keeps however far over budget the cache is
+     */
+    public int getChannelMinimum() {
+        return channelMinimum;
+    }
+
+    public boolean isJournalEnabled() {
+        return !journalDirectory.isEmpty();
+    }
+
+    /**
+     * @return The directory to keep the message journal in
+     */
+    public Path getJournalDirectory() {
+        return Paths.get(journalDirectory);
+    }
+
+    /**
+     * @return The size of each of the message journal's segment files, in bytes
+     */
+    public int getJournalSegmentBytes() {
+        return journalSegmentBytes;
+    }
+
+    /**
+     * @return How long, in milliseconds, the message journal keeps messages for
+     */
+    public long getJournalRetentionMillis() {
+        return TimeUnit.HOURS.toMillis(journalRetentionHours);
+    }
+}
@@ -0,0 +1,543 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+/**
+ * An append-only, on-disk record of the messages {@link MessageCache} has seen, so that edits and deletions of messages
+ * posted before the bot was restarted can still be logged with what the message used to say, and so that the cache can
+ * be refilled at startup without asking Discord for every channel's history.
+ * <p>
+ * The journal is a directory of segment files, each of a fixed size and memory-mapped, so appending a record is a copy
+ * into memory; the operating system writes it out in its own time, and it survives the bot crashing (but not the
+ * machine).  Records are appended to the newest segment until it fills up, when a new one is started.  Each record is
+ * a {@link CachedMessage} plus the time it was posted or edited; an edit appends a new record, and the newest record
+ * for a message wins.  For each segment, an index from message ID (snowflake) to the offset of the message's newest
+ * record in it is kept in memory, along with the range of IDs it holds, and rebuilt by reading through the segment when
+ * the journal is opened.  The indexes last as long as the segments do, so they're kept in primitive arrays, at 24 to 48
+ * bytes per message; see {@link #getIndexBytes()}.
+ * <p>
+ * A segment is deleted once everything in it is older than the retention period.  This is checked when the journal is
+ * opened, and on a background thread whenever a new segment is started, when the finished segment is also flushed to
+ * disk, so that appending never waits on the disk.
+ * <p>
+ * Each record is a 4-byte length followed by that many bytes of message, and the length is written after the message,
+ * so a record that was only partly written when the bot died reads as the end of the segment.
+ */
+class MessageJournal implements Closeable {
+    private static final int MAGIC = 0x4D4A524E; // "MJRN"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "messages-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int NULL_STRING = -1;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long retentionMillis;
+    // Oldest first; the last is the one being appended to
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final ExecutorService maintenance = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+        .namingPattern("messageJournal-thread%d")
+        .daemon(true)
+        .build());
+
+    MessageJournal(Path directory, int segmentBytes, long retentionMillis) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.retentionMillis = retentionMillis;
+
+        Files.createDirectories(directory);
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(MessageJournal::isSegmentFile)
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        try {
+            for (Path file : files) {
+                segments.add(Segment.open(file));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        deleteSegments(removeExpiredSegments(System.currentTimeMillis()));
+    }
+
+    /**
+     * @param time When the message was posted, or edited if this is an edit, in milliseconds since the Unix epoch
+     * @return False if the message is too big to fit in a segment, and wasn't recorded
+     */
+    synchronized boolean append(CachedMessage message, long time) throws IOException {
+        byte[] content = encode(message.getContent());
+        String displayContentString = message.getDisplayContent();
+        // The display text is usually the same as the raw text, so don't write it twice
+        byte[] displayContent = displayContentString.equals(message.getContent()) ? null : encode(displayContentString);
+        String[] attachmentUrlStrings = message.getAttachmentUrls();
+        byte[][] attachmentUrls = new byte[attachmentUrlStrings.length][];
+        byte[] authorName = encode(message.getAuthorName());
+        byte[] authorShortName = encode(message.getAuthorShortName());
+        byte[] authorAvatarUrl = encode(message.getAuthorAvatarUrl());
+
+        // Five longs, five strings, and the attachment count
+        int length = 5 * Long.BYTES + encodedSize(content) + encodedSize(displayContent) + encodedSize(authorName) +
+            encodedSize(authorShortName) + encodedSize(authorAvatarUrl) + Integer.BYTES;
+
+        for (int i = 0; i < attachmentUrls.length; i++) {
+            attachmentUrls[i] = encode(attachmentUrlStrings[i]);
+            length += encodedSize(attachmentUrls[i]);
+        }
+
+        if (HEADER_SIZE + Integer.BYTES + length > segmentBytes) {
+            return false;
+        }
+
+        Segment segment = segments.peekLast();
+
+        if (segment == null || segment.writePosition + Integer.BYTES + length > segment.buffer.capacity()) {
+            segment = startSegment();
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        int recordPosition = segment.writePosition;
+
+        buffer.position(recordPosition + Integer.BYTES);
+        buffer.putLong(message.getMessageId())
+            .putLong(message.getAuthorId())
+            .putLong(message.getChannelId())
+            .putLong(message.getCreationTime())
+            .putLong(time);
+        putString(buffer, content);
+        putString(buffer, displayContent);
+        putString(buffer, authorName);
+        putString(buffer, authorShortName);
+        putString(buffer, authorAvatarUrl);
+        buffer.putInt(attachmentUrls.length);
+
+        for (byte[] attachmentUrl : attachmentUrls) {
+            putString(buffer, attachmentUrl);
+        }
+
+        // Only now is the record complete
+        buffer.putInt(recordPosition, length);
+        segment.writePosition = buffer.position();
+        segment.addToIndex(message.getMessageId(), recordPosition, time);
+
+        return true;
+    }
+
+    /**
+     * @return The newest record of the message, if the journal still has it
+     */
+    synchronized Optional<CachedMessage> get(long messageId) {
+        Iterator<Segment> iterator = segments.descendingIterator();
+
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+
+            if (messageId < segment.minMessageId || messageId > segment.maxMessageId) {
+                continue;
+            }
+
+            int position = segment.index.get(messageId);
+
+            if (position >= 0) {
+                return Optional.of(segment.read(position));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Passes the most recent records in the journal, oldest first, to the consumer along with the time each message was
+     * posted or edited.  Whole segments are replayed, starting with the oldest of however many of the newest segments
+     * it takes to reach {@code maxBytes} of records.
+     */
+    synchronized void replay(long maxBytes, ObjLongConsumer<CachedMessage> consumer) {
+        List<Segment> toReplay = new ArrayList<>();
+        long bytes = 0L;
+        Iterator<Segment> iterator = segments.descendingIterator();
+
+        while (iterator.hasNext() && bytes < maxBytes) {
+            Segment segment = iterator.next();
+            toReplay.add(0, segment);
+            bytes += segment.writePosition - HEADER_SIZE;
+        }
+
+        for (Segment segment : toReplay) {
+            int position = HEADER_SIZE;
+
+            while (position < segment.writePosition) {
+                int length = segment.buffer.getInt(position);
+                consumer.accept(segment.read(position), segment.buffer.getLong(position + Integer.BYTES + 4 * Long.BYTES));
+                position += Integer.BYTES + length;
+            }
+        }
+    }
+
+    /**
+     * @return Roughly how much memory the segments' indexes take up, in bytes
+     */
+    synchronized long getIndexBytes() {
+        return segments.stream()
+            .mapToLong(segment -> segment.index.getBytes())
+            .sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Let any maintenance in progress finish first; it needs the lock
+        maintenance.shutdown();
+
+        try {
+            maintenance.awaitTermination(1L, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            IOException exception = null;
+
+            for (Segment segment : segments) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    exception = e;
+                }
+            }
+
+            segments.clear();
+
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+
+    private Segment startSegment() throws IOException {
+        long sequence = 0L;
+
+        if (!segments.isEmpty()) {
+            Segment previous = segments.peekLast();
+            sequence = previous.sequence + 1L;
+
+            // Flushing the finished segment to disk, and deleting expired ones, can take a while, and appends are made
+            // from JDA's event threads
+            maintenance.execute(() -> {
+                try {
+                    previous.buffer.force();
+                    deleteSegments(removeExpiredSegments(System.currentTimeMillis()));
+                } catch (IOException e) {
+                    System.err.println("Error during message journal maintenance: " + e.toString());
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        Segment segment = Segment.create(directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX)),
+            sequence, segmentBytes);
+        segments.add(segment);
+
+        return segment;
+    }
+
+    /**
+     * @return The segments removed, which the caller must close and delete once it has released the lock
+     */
+    private synchronized List<Segment> removeExpiredSegments(long now) {
+        List<Segment> expired = new ArrayList<>();
+
+        // Never delete the segment being appended to
+        while (segments.size() > 1 && segments.peekFirst().newestRecordTime < now - retentionMillis) {
+            expired.add(segments.removeFirst());
+        }
+
+        return expired;
+    }
+
+    private static void deleteSegments(List<Segment> expired) throws IOException {
+        for (Segment segment : expired) {
+            segment.close();
+            Files.delete(segment.file);
+        }
+    }
+
+    private static boolean isSegmentFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static byte[] encode(String string) {
+        return string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int encodedSize(byte[] string) {
+        return Integer.BYTES + (string == null ? 0 : string.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] string) {
+        if (string == null) {
+            buffer.putInt(NULL_STRING);
+        } else {
+            buffer.putInt(string.length);
+            buffer.put(string);
+        }
+    }
+
+    private static class Segment {
+        private final Path file;
+        private final long sequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // Message ID to the position of its newest record in this segment
+        private final SnowflakeIndex index = new SnowflakeIndex();
+        private long minMessageId = Long.MAX_VALUE;
+        private long maxMessageId = Long.MIN_VALUE;
+        private long newestRecordTime = Long.MIN_VALUE;
+        private int writePosition = HEADER_SIZE;
+
+        private Segment(Path file, long sequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private static Segment create(Path file, long sequence, int segmentBytes) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(file, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0L, segmentBytes));
+
+            segment.buffer.putInt(0, MAGIC)
+                .putInt(Integer.BYTES, VERSION);
+
+            return segment;
+        }
+
+        private static Segment open(Path file) throws IOException {
+            String name = file.getFileName().toString();
+            long sequence;
+
+            try {
+                sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Message journal segment " + file + " has an unrecognized name", e);
+            }
+
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment;
+
+            try {
+                segment = new Segment(file, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0L, channel.size()));
+
+                if (segment.buffer.capacity() < HEADER_SIZE || segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(Integer.BYTES) != VERSION) {
+                    throw new IOException("Message journal segment " + file + " is not a version " + VERSION + " segment");
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+
+            segment.rebuildIndex();
+
+            return segment;
+        }
+
+        private void rebuildIndex() {
+            int position = HEADER_SIZE;
+
+            while (position + Integer.BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+
+                if (length <= 0 || length > buffer.capacity() - position - Integer.BYTES) {
+                    break;
+                }
+
+                addToIndex(buffer.getLong(position + Integer.BYTES), position, buffer.getLong(position + Integer.BYTES + 4 * Long.BYTES));
+                position += Integer.BYTES + length;
+            }
+
+            writePosition = position;
+        }
+
+        private void addToIndex(long messageId, int position, long time) {
+            index.put(messageId, position);
+            minMessageId = Math.min(minMessageId, messageId);
+            maxMessageId = Math.max(maxMessageId, messageId);
+            newestRecordTime = Math.max(newestRecordTime, time);
+        }
+
+        private CachedMessage read(int position) {
+            // Read through a duplicate, so as not to disturb the write position
+            ByteBuffer record = buffer.duplicate();
+            record.position(position + Integer.BYTES);
+
+            long messageId = record.getLong();
+            long authorId = record.getLong();
+            long channelId = record.getLong();
+            long creationTime = record.getLong();
+            record.getLong(); // Time posted or edited
+            String content = getString(record);
+            String displayContent = getString(record);
+            String authorName = getString(record);
+            String authorShortName = getString(record);
+            String authorAvatarUrl = getString(record);
+            String[] attachmentUrls = new String[record.getInt()];
+
+            for (int i = 0; i < attachmentUrls.length; i++) {
+                attachmentUrls[i] = getString(record);
+            }
+
+            return new CachedMessage(messageId, authorId, channelId, creationTime, content, displayContent, attachmentUrls,
+                authorName, authorShortName, authorAvatarUrl);
+        }
+
+        private static String getString(ByteBuffer buffer) {
+            int length = buffer.getInt();
+
+            if (length == NULL_STRING) {
+                return null;
+            }
+
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void close() throws IOException {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * A map from snowflake to position, using open addressing over a pair of primitive arrays, since a HashMap would
+     * box both.  Snowflakes are never 0, so 0 marks an empty slot.
+     */
+    private static class SnowflakeIndex {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private int[] values = new int[INITIAL_CAPACITY];
+        private int size = 0;
+
+        /**
+         * @return The position recorded for the snowflake, or -1 if there isn't one
+         */
+        private int get(long snowflake) {
+            int mask = keys.length - 1;
+
+            for (int slot = slotFor(snowflake, mask); keys[slot] != 0L; slot = (slot + 1) & mask) {
+                if (keys[slot] == snowflake) {
+                    return values[slot];
+                }
+            }
+
+            return -1;
+        }
+
+        private void put(long snowflake, int position) {
+            // Keep the table at most half full, so probe sequences stay short
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+
+            int mask = keys.length - 1;
+            int slot = slotFor(snowflake, mask);
+
+            while (keys[slot] != 0L && keys[slot] != snowflake) {
+                slot = (slot + 1) & mask;
+            }
+
+            if (keys[slot] == 0L) {
+                keys[slot] = snowflake;
+                size++;
+            }
+
+            values[slot] = position;
+        }
+
+        private long getBytes() {
+            return (long) keys.length * (Long.BYTES + Integer.BYTES);
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+
+            keys = new long[capacity];
+            values = new int[capacity];
+            size = 0;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0L) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int slotFor(long snowflake, int mask) {
+            // The low bits of a snowflake are a per-process counter, so mix in the rest
+            long hash = snowflake * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
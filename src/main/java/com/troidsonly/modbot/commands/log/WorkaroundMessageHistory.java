@@ -36,6 +36,7 @@
 
 package com.troidsonly.modbot.commands.log;
 
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -65,24 +66,26 @@ public class WorkaroundMessageHistory extends MessageHistory {
                 route = route.withQueryParams(new String[]{"before", String.valueOf(this.history.lastKey())});
             }
 
-            JDAImpl jda = (JDAImpl) this.getJDA();
-            return new RestActionImpl<>(jda, route, (response, request) -> {
-                EntityBuilder builder = jda.getEntityBuilder();
-                LinkedList<Message> messages = new LinkedList<>();
-                DataArray historyJson = response.getArray();
+            return retrieve(route);
+        } else {
+            throw new IllegalArgumentException(
+                    "Message retrieval limit is between 1 and 100 messages. No more, no less. Limit provided: "
+                            + amount);
+        }
+    }
 
-                for (int i = 0; i < historyJson.length(); ++i) {
-                    try {
-                        messages.add(builder.createMessage(historyJson.getObject(i)));
-                    } catch (IllegalArgumentException e) {
-                        //noinspection UnnecessaryContinue
-                        continue;
-                    }
-                }
+    /**
+     * Retrieves up to {@code amount} of the messages sent immediately after the given message, oldest first.
+     */
+    public RestAction<List<Message>> retrieveAfter(long messageId, int amount) {
+        if (amount <= 100 && amount >= 1) {
+            CompiledRoute route = Messages.GET_MESSAGE_HISTORY.compile(new String[]{this.channel.getId()})
+                    .withQueryParams(new String[]{"limit", Integer.toString(amount)})
+                    .withQueryParams(new String[]{"after", Long.toString(messageId)});
 
-                messages.forEach((msg) -> {
-                    this.history.put(msg.getIdLong(), msg);
-                });
+            return retrieve(route).map(messages -> {
+                // Discord sends the newest first, as with any history request
+                messages.sort(Comparator.comparingLong(Message::getIdLong));
                 return messages;
             });
         } else {
@@ -91,4 +94,27 @@ public class WorkaroundMessageHistory extends MessageHistory {
                             + amount);
         }
     }
+
+    private RestAction<List<Message>> retrieve(CompiledRoute route) {
+        JDAImpl jda = (JDAImpl) this.getJDA();
+        return new RestActionImpl<>(jda, route, (response, request) -> {
+            EntityBuilder builder = jda.getEntityBuilder();
+            LinkedList<Message> messages = new LinkedList<>();
+            DataArray historyJson = response.getArray();
+
+            for (int i = 0; i < historyJson.length(); ++i) {
+                try {
+                    messages.add(builder.createMessage(historyJson.getObject(i)));
+                } catch (IllegalArgumentException e) {
+                    //noinspection UnnecessaryContinue
+                    continue;
+                }
+            }
+
+            messages.forEach((msg) -> {
+                this.history.put(msg.getIdLong(), msg);
+            });
+            return messages;
+        });
+    }
 }
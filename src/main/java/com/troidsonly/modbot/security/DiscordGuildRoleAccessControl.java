@@ -32,6 +32,7 @@
 
 package com.troidsonly.modbot.security;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -40,12 +41,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
 
 import com.troidsonly.modbot.ModBot;
 import com.troidsonly.modbot.hooks.CommandHandler;
@@ -53,12 +61,28 @@ import com.troidsonly.modbot.persistence.PersistenceManager;
 import com.troidsonly.modbot.persistence.PersistenceWrapper;
 import com.troidsonly.modbot.utils.Miscellaneous;
 
-public class DiscordGuildRoleAccessControl implements AccessControl {
+/**
+ * Grants permissions to members based on their roles.  Since permissions are checked for a lot of messages (every
+ * filter match, for instance), the permissions each distinct combination of roles resolves to are cached.  Permission
+ * names are interned as bit indices, so checking a permission is a cache lookup and a bit test.  The cache is thrown
+ * away whenever permissions are granted or revoked, or a role is deleted.
+ */
+public class DiscordGuildRoleAccessControl extends ListenerAdapter implements AccessControl {
+    private static final String WILDCARD = "*";
+    private static final long MAX_CACHED_ROLE_SETS = 10000L;
+
     private final DGRACHandler commandHandler = new DGRACHandler();
     private final Set<String> owners;
     private final PersistenceManager<Persistence> pm;
     private final Persistence persistence;
 
+    // Permission names to their bit indices.  Only ever added to, so that a bit always means the same permission.
+    private final Map<String, Integer> permissionBits = new ConcurrentHashMap<>();
+    private final AtomicInteger nextPermissionBit = new AtomicInteger();
+    // Keyed by the IDs of a member's roles.  Replaced wholesale to invalidate, so that a resolution racing with the
+    // invalidation can only ever populate the discarded cache.
+    private volatile Cache<Set<String>, ResolvedPermissions> resolvedPermissions = newResolvedPermissionsCache();
+
     public DiscordGuildRoleAccessControl(PersistenceWrapper<?> wrapper, Set<String> owners) {
         pm = wrapper.getPersistenceManager("DiscordGuildRoleAccessControl", Persistence.class);
         this.owners = owners;
@@ -67,22 +91,53 @@ public class DiscordGuildRoleAccessControl implements AccessControl {
 
     @Override
     public boolean hasPermission(Member member, String permission) {
-        return getPermissions(member).contains("*") || getPermissions(member).contains(permission);
+        if (owners.contains(member.getUser().getId())) {
+            return true;
+        }
+
+        return resolve(member).has(permissionBits.get(permission));
     }
 
     @Override
     public Set<String> getPermissions(Member member) {
         if (owners.contains(member.getUser().getId())) {
-            return ImmutableSet.of("*");
+            return ImmutableSet.of(WILDCARD);
         }
 
-        return member.getRoles().stream()
+        return resolve(member).getPermissions();
+    }
+
+    @Override
+    public void onRoleDelete(RoleDeleteEvent event) {
+        invalidate();
+    }
+
+    private ResolvedPermissions resolve(Member member) {
+        Set<String> roleIds = member.getRoles().stream()
             .map(Role::getId)
-            .filter(role -> persistence.getRoleIdToPermissions().containsKey(role))
-            .map(role -> persistence.getRoleIdToPermissions().get(role))
-            .filter(Objects::nonNull)
-            .flatMap(Collection::stream)
-            .collect(Collectors.toSet());
+            .collect(ImmutableSet.toImmutableSet());
+        Cache<Set<String>, ResolvedPermissions> cache = resolvedPermissions;
+
+        try {
+            return cache.get(roleIds, () -> new ResolvedPermissions(roleIds.stream()
+                .map(role -> persistence.getRoleIdToPermissions().get(role))
+                .filter(Objects::nonNull)
+                .flatMap(Collection::stream)
+                .collect(ImmutableSet.toImmutableSet())));
+        } catch (ExecutionException e) {
+            // The loader doesn't throw checked exceptions
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void invalidate() {
+        resolvedPermissions = newResolvedPermissionsCache();
+    }
+
+    private static Cache<Set<String>, ResolvedPermissions> newResolvedPermissionsCache() {
+        return CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_ROLE_SETS)
+            .build();
     }
 
     @Override
@@ -95,6 +150,32 @@ public class DiscordGuildRoleAccessControl implements AccessControl {
         pm.sync();
     }
 
+    private class ResolvedPermissions {
+        private final Set<String> permissions;
+        private final BitSet bits = new BitSet();
+        private final boolean wildcard;
+
+        ResolvedPermissions(Set<String> permissions) {
+            this.permissions = permissions;
+            wildcard = permissions.contains(WILDCARD);
+
+            for (String permission : permissions) {
+                bits.set(permissionBits.computeIfAbsent(permission, k -> nextPermissionBit.getAndIncrement()));
+            }
+        }
+
+        /**
+         * @param bit The permission's bit index, or null if the permission has never been granted to anyone
+         */
+        boolean has(Integer bit) {
+            return wildcard || (bit != null && bits.get(bit));
+        }
+
+        Set<String> getPermissions() {
+            return permissions;
+        }
+    }
+
     private static class Persistence {
         private Map<String, Set<String>> roleIdToPermissions;
 
@@ -160,6 +241,7 @@ public class DiscordGuildRoleAccessControl implements AccessControl {
                                 Set<String> permissions = persistence.getRoleIdToPermissions().computeIfAbsent(roleId, k -> new HashSet<>());
 
                                 permissions.add(remainder);
+                                invalidate();
                                 sync();
 
                                 Miscellaneous.respond(event, "Granted permission \"" + remainder + "\" to role \"" + roleName + '"');
@@ -183,6 +265,7 @@ public class DiscordGuildRoleAccessControl implements AccessControl {
                                 }
 
                                 if (permissions.remove(remainder)) {
+                                    invalidate();
                                     sync();
                                     Miscellaneous.respond(event, "Revoked permission " + remainder.trim() + " from role " + roleName);
                                 } else {
@@ -68,6 +68,9 @@ import org.apache.commons.lang3.StringUtils;
 import com.troidsonly.modbot.ModBot;
 
 public final class Miscellaneous {
+    // Discord refuses longer messages
+    public static final int MAX_MESSAGE_LENGTH = 2000;
+
     private Miscellaneous() {
         throw new IllegalStateException("This class may not be instantiated.");
     }
@@ -106,6 +109,41 @@ public final class Miscellaneous {
         event.getChannel().sendMessage(event.getMember().getAsMention() + ' ' + message).complete();
     }
 
+    /**
+     * Splits text into pieces short enough to send as Discord messages, breaking at line ends where possible.
+     */
+    public static List<String> splitMessage(String text) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder part = new StringBuilder();
+
+        for (String line : text.split("\n", -1)) {
+            while (line.length() > MAX_MESSAGE_LENGTH) {
+                if (part.length() > 0) {
+                    parts.add(part.toString());
+                    part.setLength(0);
+                }
+
+                parts.add(line.substring(0, MAX_MESSAGE_LENGTH));
+                line = line.substring(MAX_MESSAGE_LENGTH);
+            }
+
+            if (part.length() > 0 && part.length() + 1 + line.length() > MAX_MESSAGE_LENGTH) {
+                parts.add(part.toString());
+                part.setLength(0);
+            } else if (part.length() > 0) {
+                part.append('\n');
+            }
+
+            part.append(line);
+        }
+
+        if (part.toString().trim().length() > 0) {
+            parts.add(part.toString());
+        }
+
+        return parts;
+    }
+
     public static boolean isChannelLike(String arg) {
         // Determine if the argument string appears to be a text channel - i.e., does it start with #?
         return arg.startsWith("#");
@@ -253,13 +291,16 @@ public final class Miscellaneous {
     }
 
     public static String getFullMessage(Message message) {
+        if (message.getAttachments().isEmpty()) {
+            // By far the most common case, and needs no copying
+            return message.getContentRaw();
+        }
+
         StringBuilder output = new StringBuilder(message.getContentRaw());
 
-        if (message.getAttachments().size() >= 1) {
-            for (Message.Attachment attachment : message.getAttachments()) {
-                output.append(" ")
-                    .append(attachment.getUrl());
-            }
+        for (Message.Attachment attachment : message.getAttachments()) {
+            output.append(" ")
+                .append(attachment.getUrl());
         }
 
         return output.toString();
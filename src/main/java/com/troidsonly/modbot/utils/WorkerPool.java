@@ -0,0 +1,206 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.utils;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+/**
+ * A named thread pool with a fixed maximum number of threads and a bounded queue, for use by a single subsystem.  When
+ * both are full, new tasks are handled according to the pool's {@link RejectionPolicy}, and counted, so that a flood of
+ * work applies back-pressure or is shed rather than spawning threads without limit.  Idle threads exit after a minute.
+ */
+public class WorkerPool extends ThreadPoolExecutor {
+    private final String name;
+    private final int queueCapacity;
+    private final RejectionPolicy rejectionPolicy;
+    private final LongAdder rejections = new LongAdder();
+
+    public WorkerPool(String name, int maxThreads, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        super(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+            new BasicThreadFactory.Builder()
+                .namingPattern(name + "-thread%d")
+                .daemon(true)
+                .build());
+
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.rejectionPolicy = rejectionPolicy;
+
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new CountingRejectionHandler());
+    }
+
+    /**
+     * Constructs a pool configured by the properties {@code <name>Threads}, {@code <name>QueueSize} and
+     * {@code <name>RejectionPolicy}, using the given defaults for any that are unset or blank.
+     */
+    public static WorkerPool fromProperties(Properties properties, String name, int defaultThreads, int defaultQueueSize, RejectionPolicy defaultPolicy) {
+        return fromProperties(properties, name, defaultThreads, defaultQueueSize, defaultPolicy, EnumSet.allOf(RejectionPolicy.class));
+    }
+
+    /**
+     * As {@link #fromProperties(Properties, String, int, int, RejectionPolicy)}, but refusing any rejection policy not in
+     * {@code allowedPolicies}.  A pool whose submitters wait on the result with a timeout shouldn't run tasks on the
+     * submitting thread, for instance, since the timeout then never applies.
+     */
+    public static WorkerPool fromProperties(Properties properties, String name, int defaultThreads, int defaultQueueSize, RejectionPolicy defaultPolicy,
+                                            Set<RejectionPolicy> allowedPolicies) {
+        int threads = Integer.parseInt(getProperty(properties, name + "Threads", Integer.toString(defaultThreads)));
+        int queueSize = Integer.parseInt(getProperty(properties, name + "QueueSize", Integer.toString(defaultQueueSize)));
+        String policyString = getProperty(properties, name + "RejectionPolicy", defaultPolicy.toString());
+
+        RejectionPolicy policy = RejectionPolicy.getFromStringMap().get(policyString);
+        if (policy == null) {
+            throw new IllegalArgumentException("Unknown rejection policy \"" + policyString + "\" for " + name + "; must be one of: " +
+                Miscellaneous.getStringRepresentation(RejectionPolicy.getFromStringMap().keySet()));
+        }
+
+        if (!allowedPolicies.contains(policy)) {
+            throw new IllegalArgumentException("Rejection policy \"" + policyString + "\" may not be used for " + name + "; must be one of: " +
+                Miscellaneous.getStringRepresentation(allowedPolicies.stream().map(RejectionPolicy::toString).collect(Collectors.toList())));
+        }
+
+        return new WorkerPool(name, threads, queueSize, policy);
+    }
+
+    private static String getProperty(Properties properties, String key, String defaultValue) {
+        String value = properties.getProperty(key, "").trim();
+        return value.isEmpty() ? defaultValue : value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * @return The number of tasks that have been rejected because the pool and its queue were full, regardless of how
+     * the rejection was then handled
+     */
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    private class CountingRejectionHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejections.increment();
+
+            switch (rejectionPolicy) {
+                case CALLER_RUNS:
+                    if (!executor.isShutdown()) {
+                        r.run();
+                    }
+                    break;
+                case ABORT:
+                    throw new RejectedExecutionException("Task rejected from " + name + ": pool and queue are full");
+                case DISCARD:
+                    cancel(r);
+                    break;
+                case DISCARD_OLDEST:
+                    if (!executor.isShutdown()) {
+                        cancel(executor.getQueue().poll());
+                        executor.execute(r);
+                    } else {
+                        cancel(r);
+                    }
+                    break;
+            }
+        }
+
+        private void cancel(Runnable r) {
+            // Anyone waiting on a discarded task's Future would otherwise wait forever
+            if (r instanceof Future) {
+                ((Future<?>) r).cancel(false);
+            }
+        }
+    }
+
+    /**
+     * What to do with a task submitted while the pool's threads are all busy and its queue is full.
+     */
+    public enum RejectionPolicy {
+        CALLER_RUNS("caller-runs"), // Run the task on the submitting thread, slowing the submitter down
+        ABORT("abort"), // Throw a RejectedExecutionException to the submitter
+        DISCARD("discard"), // Drop the task
+        DISCARD_OLDEST("discard-oldest"); // Drop the task that has been queued longest, and queue this one instead
+
+        private static final Map<String, RejectionPolicy> fromStringMap = new HashMap<>();
+
+        private final String stringRepresentation;
+
+        static {
+            for (RejectionPolicy value : RejectionPolicy.values()) {
+                fromStringMap.put(value.stringRepresentation, value);
+            }
+        }
+
+        RejectionPolicy(String stringRepresentation) {
+            this.stringRepresentation = stringRepresentation;
+        }
+
+        @Override
+        public String toString() {
+            return stringRepresentation;
+        }
+
+        public static Map<String, RejectionPolicy> getFromStringMap() {
+            return new HashMap<>(fromStringMap);
+        }
+    }
+}
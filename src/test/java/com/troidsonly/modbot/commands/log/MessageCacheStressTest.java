@@ -0,0 +1,264 @@
+/*
+ * TROIDSONLY/MODBOT
+ * By the Metroid Community Discord Server's Development Team (see AUTHORS.txt file)
+ *
+ * Copyright (C) 2017-2020 by the Metroid Community Discord Server's Development Team. Some rights reserved.
+ *
+ * License GPLv3+: GNU General Public License version 3 or later (at your choice):
+ * <http://gnu.org/licenses/gpl.html>. This is free software: you are free to
+ * change and redistribute it at your will provided that your redistribution, with
+ * or without modifications, is also licensed under the GNU GPL. (Although not
+ * required by the license, we also ask that you attribute us!) There is NO
+ * WARRANTY FOR THIS SOFTWARE to the extent permitted by law.
+ *
+ * This project contains code and components derived from the
+ * LizardIRC/Beancounter IRC bot <https://www.lizardirc.org/?page=beancounter>,
+ * which is also licensed GNU GPLv3+.
+ *
+ * This is an open source project. The source Git repositories, which you are
+ * welcome to contribute to, can be found here:
+ * <https://gerrit.fastlizard4.org/r/gitweb?p=TroidsOnly%2FModBot.git;a=summary>
+ * <https://git.fastlizard4.org/gitblit/summary/?r=TroidsOnly/ModBot.git>
+ *
+ * Gerrit Code Review for the project:
+ * <https://gerrit.fastlizard4.org/r/#/q/project:TroidsOnly/ModBot,n,z>
+ *
+ * Alternatively, the project source code can be found on the PUBLISH-ONLY mirror
+ * on GitHub: <https://github.com/LizardNet/TroidsOnly-ModBot>
+ *
+ * Note: Pull requests and patches submitted to GitHub will be transferred by a
+ * developer to Gerrit before they are acted upon.
+ */
+
+package com.troidsonly.modbot.commands.log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.requests.restaction.MessageAction;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Hammers a {@link MessageCache} from many threads at once, adding, editing and reading messages in a handful of
+ * channels while eviction keeps it within a small budget, then checks that its bookkeeping still adds up.
+ */
+public class MessageCacheStressTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 20000;
+    private static final int CHANNELS = 6;
+    private static final long BUDGET_BYTES = 512L * 1024L;
+    private static final int CHANNEL_MINIMUM = 20;
+
+    private final AtomicLong nextMessageId = new AtomicLong(1L);
+
+    @Test
+    public void concurrentUseKeepsInvariants() throws InterruptedException {
+        List<TextChannel> channels = new ArrayList<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            channels.add(textChannel(1000L + i));
+        }
+
+        MessageCache cache = new MessageCache(channels.get(0),
+            new MessageCacheSettings(BUDGET_BYTES, CHANNEL_MINIMUM, "", 1024 * 1024, 1L), null);
+
+        // Message IDs added to each channel, so edits and lookups have something to aim at
+        List<List<Long>> addedIds = new ArrayList<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            addedIds.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                try {
+                    start.await();
+
+                    for (int op = 0; op < OPERATIONS_PER_THREAD; op++) {
+                        // Skew activity towards the first channels, so that they're busier than the rest
+                        int channelIndex = Math.min(random.nextInt(CHANNELS), random.nextInt(CHANNELS));
+                        TextChannel channel = channels.get(channelIndex);
+                        List<Long> ids = addedIds.get(channelIndex);
+                        int action = random.nextInt(10);
+
+                        if (action < 5 || ids.isEmpty()) {
+                            long id = nextMessageId.getAndIncrement();
+                            cache.addMessage(message(id, channel, random.nextInt(400)));
+                            ids.add(id);
+                        } else if (action < 7) {
+                            cache.updateMessage(message(pick(ids, random), channel, random.nextInt(400)));
+                        } else if (action < 9) {
+                            long id = pick(ids, random);
+                            cache.getMessageById(id, channel)
+                                .ifPresent(found -> assertEquals(id, found.getMessageId()));
+                        } else {
+                            List<CachedMessage> snapshot = cache.getMessagesByChannel(channel);
+                            for (CachedMessage cached : snapshot) {
+                                assertEquals(channel.getIdLong(), cached.getChannelId());
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (!failures.isEmpty()) {
+            AssertionError error = new AssertionError(failures.size() + " thread(s) failed");
+            failures.forEach(error::addSuppressed);
+            throw error;
+        }
+
+        Map<Long, MessageCache.ChannelStats> stats = cache.getChannelStats();
+        long statsBytes = 0L;
+
+        for (TextChannel channel : channels) {
+            List<CachedMessage> messages = cache.getMessagesByChannel(channel);
+            MessageCache.ChannelStats channelStats = stats.get(channel.getIdLong());
+
+            long bytes = 0L;
+            Set<Long> ids = new HashSet<>();
+
+            for (CachedMessage message : messages) {
+                bytes += message.getEstimatedSize() + MessageCache.ENTRY_OVERHEAD;
+                assertTrue("Message " + message.getMessageId() + " is cached twice", ids.add(message.getMessageId()));
+            }
+
+            assertEquals(messages.size(), channelStats.getMessages());
+            assertEquals(bytes, channelStats.getBytes());
+            assertTrue("A channel was evicted below its minimum", messages.size() >= CHANNEL_MINIMUM);
+            statsBytes += bytes;
+        }
+
+        assertEquals(statsBytes, cache.getTotalBytes());
+        assertTrue("The cache is over budget", cache.getTotalBytes() <= BUDGET_BYTES);
+        assertTrue("Nothing was evicted, so eviction wasn't exercised", cache.getEvictions() > 0L);
+    }
+
+    private static long pick(List<Long> ids, ThreadLocalRandom random) {
+        synchronized (ids) {
+            return ids.get(random.nextInt(ids.size()));
+        }
+    }
+
+    private static Message message(long id, TextChannel channel, int length) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            content.append((char) ('a' + i % 26));
+        }
+
+        User author = proxy(User.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getIdLong":
+                    return id % 7L + 1L;
+                case "getId":
+                    return Long.toString(id % 7L + 1L);
+                case "getName":
+                    return "user" + id % 7L;
+                case "getDiscriminator":
+                    return "0001";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+
+        return proxy(Message.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getIdLong":
+                    return id;
+                case "getId":
+                    return Long.toString(id);
+                case "getTextChannel":
+                    return channel;
+                case "getAuthor":
+                    return author;
+                case "getContentRaw":
+                case "getContentDisplay":
+                    return content.toString();
+                case "getAttachments":
+                    return Collections.emptyList();
+                case "getTimeCreated":
+                    return OffsetDateTime.now();
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static TextChannel textChannel(long id) {
+        MessageAction action = proxy(MessageAction.class, (proxy, method, args) -> defaultValue(method.getReturnType()));
+        Guild guild = proxy(Guild.class, (proxy, method, args) ->
+            method.getName().equals("getTextChannels") ? Collections.emptyList() : defaultValue(method.getReturnType()));
+
+        return proxy(TextChannel.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getIdLong":
+                    return id;
+                case "getId":
+                    return Long.toString(id);
+                case "getGuild":
+                    return guild;
+                case "sendMessage":
+                    return action;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return Long.hashCode(id);
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type.isPrimitive() && type != void.class) {
+            fail("No default for " + type);
+        }
+
+        return null;
+    }
+}